@@ -1,5 +1,7 @@
 package fr.snoof.jobs;
 
+import com.hypixel.hytale.server.core.event.events.player.PlayerConnectEvent;
+import com.hypixel.hytale.server.core.event.events.player.PlayerDisconnectEvent;
 import com.hypixel.hytale.server.core.plugin.JavaPlugin;
 import com.hypixel.hytale.server.core.plugin.JavaPluginInit;
 import fr.snoof.jobs.command.JobAdminCommand;
@@ -45,20 +47,29 @@ public class EcoJobsPlugin extends JavaPlugin {
 
         configManager = new ConfigManager(dataFolder, getLogger());
         configManager.load();
+        configManager.initAutoReload();
 
-        jobManager = new JobManager(configManager);
+        jobManager = new JobManager(configManager, getLogger());
 
-        placedBlockManager = new PlacedBlockManager(dataFolder, getLogger());
-        placedBlockManager.load();
+        placedBlockManager = new PlacedBlockManager(dataFolder, getLogger(), configManager);
+        placedBlockManager.init(configManager.getConfig().placedBlocksCheckpointInterval);
 
-        dataManager = new DataManager(dataFolder, getLogger(), jobManager);
-        dataManager.init(configManager.getConfig().autoSaveInterval);
+        dataManager = new DataManager(dataFolder, getLogger(), jobManager, configManager.getConfig().storage,
+                configManager.getConfig().prettyJson, configManager.getConfig().progressionCheckpointEvents);
+        dataManager.init(configManager.getConfig().autoSaveInterval, configManager.getConfig().archiveAfterDays);
+        dataManager.initBackups(configManager.getConfig().backupIntervalMinutes,
+                configManager.getConfig().backupFullEvery, configManager.getConfig().backupRetention);
+
+        getEventRegistry().register(PlayerConnectEvent.class, event -> dataManager.onPlayerConnect(
+                event.getPlayerRef().getUuid(), event.getPlayerRef().getUsername()));
+        getEventRegistry().register(PlayerDisconnectEvent.class,
+                event -> dataManager.onPlayerDisconnect(event.getPlayerRef().getUuid()));
 
         blockBreakListener = new BlockBreakListener(jobManager, configManager, placedBlockManager);
         blockInteractListener = new BlockInteractListener(jobManager, configManager, placedBlockManager);
         entityKillListener = new EntityKillListener(jobManager, configManager);
         craftingListener = new CraftingListener(jobManager, configManager);
-        blockPlaceListener = new BlockPlaceListener(placedBlockManager);
+        blockPlaceListener = new BlockPlaceListener(configManager, placedBlockManager);
 
         getCommandRegistry().registerCommand(new JobCommand(this));
         getCommandRegistry().registerCommand(new JobAdminCommand(this));
@@ -80,9 +91,10 @@ public class EcoJobsPlugin extends JavaPlugin {
             dataManager.shutdown();
         }
         if (placedBlockManager != null) {
-            placedBlockManager.save();
+            placedBlockManager.shutdown();
         }
         if (configManager != null) {
+            configManager.shutdown();
             configManager.save();
         }
         getLogger().at(Level.INFO).log("EcoJobs désactivé.");
@@ -11,19 +11,32 @@ import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import fr.snoof.jobs.EcoJobsPlugin;
 import fr.snoof.jobs.config.ConfigManager;
 import fr.snoof.jobs.hook.PermsHook;
+import fr.snoof.jobs.manager.BackupManager;
+import fr.snoof.jobs.manager.DataManager;
 import fr.snoof.jobs.manager.JobManager;
+import fr.snoof.jobs.manager.PlacedBlockManager;
 import fr.snoof.jobs.model.JobPlayer;
 import fr.snoof.jobs.model.JobType;
 import fr.snoof.jobs.util.MessageUtil;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 public class JobAdminCommand extends AbstractPlayerCommand {
+    private static final DateTimeFormatter BACKUP_DATE = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm")
+            .withZone(ZoneId.systemDefault());
 
     private final EcoJobsPlugin plugin;
     private final JobManager jobManager;
     private final ConfigManager configManager;
+    private final PlacedBlockManager placedBlockManager;
+    private final DataManager dataManager;
 
     public JobAdminCommand(EcoJobsPlugin plugin) {
         super("jobadmin", "Commandes admin des métiers");
@@ -31,6 +44,8 @@ public class JobAdminCommand extends AbstractPlayerCommand {
         this.plugin = plugin;
         this.jobManager = plugin.getJobManager();
         this.configManager = plugin.getConfigManager();
+        this.placedBlockManager = plugin.getPlacedBlockManager();
+        this.dataManager = plugin.getDataManager();
     }
 
     @Override
@@ -64,6 +79,9 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             case "reset" -> handleReset(playerRef, arg1, arg2);
             case "reload" -> handleReload(playerRef);
             case "info" -> handleInfo(playerRef, arg1);
+            case "placed" -> handlePlaced(playerRef, world,
+                    Arrays.copyOfRange(parts, Math.min(startIndex + 1, parts.length), parts.length));
+            case "backup" -> handleBackup(playerRef, arg1, arg2);
             default -> showHelp(playerRef);
         }
     }
@@ -76,6 +94,10 @@ public class JobAdminCommand extends AbstractPlayerCommand {
         playerRef.sendMessage(MessageUtil.raw("  §e/jobadmin reset <joueur> [métier]"));
         playerRef.sendMessage(MessageUtil.raw("  §e/jobadmin reload §7- Recharger config"));
         playerRef.sendMessage(MessageUtil.raw("  §e/jobadmin info <joueur> §7- Stats joueur"));
+        playerRef.sendMessage(MessageUtil.raw(
+                "  §e/jobadmin placed <count|purge> <x1> <y1> <z1> <x2> <y2> <z2> [monde]"));
+        playerRef.sendMessage(MessageUtil.raw("  §e/jobadmin placed <info|purge> <joueur|uuid>"));
+        playerRef.sendMessage(MessageUtil.raw("  §e/jobadmin backup <list|now|restore> [id] §7- Sauvegardes"));
     }
 
     private void handleSetLevel(PlayerRef playerRef, String playerName, String jobName, String levelStr) {
@@ -84,7 +106,7 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        PlayerRef target = findPlayer(playerName);
+        JobPlayer target = findProfile(playerName);
         if (target == null) {
             playerRef.sendMessage(MessageUtil.error(
                     String.format(configManager.getMessages().playerNotFound, playerName)));
@@ -107,9 +129,9 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        jobManager.setLevel(target.getUuid(), target.getUsername(), type, level);
+        jobManager.setLevel(target.getUuid(), target.getName(), type, level);
         playerRef.sendMessage(MessageUtil.success(String.format(
-                configManager.getMessages().adminSetLevel, target.getUsername(), type.getDisplayName(), level)));
+                configManager.getMessages().adminSetLevel, target.getName(), type.getDisplayName(), level)));
     }
 
     private void handleSetXp(PlayerRef playerRef, String playerName, String jobName, String xpStr) {
@@ -118,7 +140,7 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        PlayerRef target = findPlayer(playerName);
+        JobPlayer target = findProfile(playerName);
         if (target == null) {
             playerRef.sendMessage(MessageUtil.error(
                     String.format(configManager.getMessages().playerNotFound, playerName)));
@@ -141,9 +163,9 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        jobManager.setExperience(target.getUuid(), target.getUsername(), type, xp);
+        jobManager.setExperience(target.getUuid(), target.getName(), type, xp);
         playerRef.sendMessage(MessageUtil.success(String.format(
-                configManager.getMessages().adminSetXp, target.getUsername(), type.getDisplayName(), xp)));
+                configManager.getMessages().adminSetXp, target.getName(), type.getDisplayName(), xp)));
     }
 
     private void handleAddXp(PlayerRef playerRef, String playerName, String jobName, String xpStr) {
@@ -152,7 +174,7 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        PlayerRef target = findPlayer(playerName);
+        JobPlayer target = findProfile(playerName);
         if (target == null) {
             playerRef.sendMessage(MessageUtil.error(
                     String.format(configManager.getMessages().playerNotFound, playerName)));
@@ -175,9 +197,9 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        jobManager.addXp(target.getUuid(), target.getUsername(), type, xp, target);
+        jobManager.addXp(target.getUuid(), target.getName(), type, xp, Universe.get().getPlayer(target.getUuid()));
         playerRef.sendMessage(MessageUtil.success(String.format(
-                configManager.getMessages().adminAddXp, xp, target.getUsername(), type.getDisplayName())));
+                configManager.getMessages().adminAddXp, xp, target.getName(), type.getDisplayName())));
     }
 
     private void handleReset(PlayerRef playerRef, String playerName, String jobName) {
@@ -186,7 +208,7 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        PlayerRef target = findPlayer(playerName);
+        JobPlayer target = findProfile(playerName);
         if (target == null) {
             playerRef.sendMessage(MessageUtil.error(
                     String.format(configManager.getMessages().playerNotFound, playerName)));
@@ -205,12 +227,13 @@ public class JobAdminCommand extends AbstractPlayerCommand {
 
         jobManager.resetPlayer(target.getUuid(), type);
         playerRef.sendMessage(MessageUtil.success(String.format(
-                configManager.getMessages().adminReset, target.getUsername())));
+                configManager.getMessages().adminReset, target.getName())));
     }
 
     private void handleReload(PlayerRef playerRef) {
-        configManager.load();
-        playerRef.sendMessage(MessageUtil.success(configManager.getMessages().adminReload));
+        jobManager.reload().thenAccept(reloaded -> playerRef.sendMessage(reloaded
+                ? MessageUtil.success(configManager.getMessages().adminReload)
+                : MessageUtil.error(configManager.getMessages().adminReloadFailed)));
     }
 
     private void handleInfo(PlayerRef playerRef, String playerName) {
@@ -219,23 +242,21 @@ public class JobAdminCommand extends AbstractPlayerCommand {
             return;
         }
 
-        PlayerRef target = findPlayer(playerName);
+        JobPlayer target = findProfile(playerName);
         if (target == null) {
             playerRef.sendMessage(MessageUtil.error(
                     String.format(configManager.getMessages().playerNotFound, playerName)));
             return;
         }
 
-        JobPlayer player = jobManager.getOrCreatePlayer(target.getUuid(), target.getUsername());
-
         playerRef.sendMessage(MessageUtil.info(String.format(
-                configManager.getMessages().adminInfo, target.getUsername())));
+                configManager.getMessages().adminInfo, target.getName())));
 
         for (JobType type : JobType.values()) {
-            int level = player.getLevel(type);
-            long xp = player.getExperience(type);
+            int level = target.getLevel(type);
+            long xp = target.getExperience(type);
             long required = jobManager.getXpRequired(level);
-            long total = player.getTotalExperience(type);
+            long total = target.getTotalExperience(type);
 
             playerRef.sendMessage(MessageUtil.raw(String.format(
                     "  §e%s §7- Nv.§6%d §7(§b%d§7/§b%d §7XP) Total: §b%d",
@@ -243,6 +264,155 @@ public class JobAdminCommand extends AbstractPlayerCommand {
         }
     }
 
+    private void handlePlaced(PlayerRef playerRef, World world, String[] args) {
+        if (args.length == 2) {
+            handlePlacedPlayer(playerRef, args[0], args[1]);
+            return;
+        }
+
+        String usage = "Usage: /jobadmin placed <count|purge> <x1> <y1> <z1> <x2> <y2> <z2> [monde]";
+        if (args.length < 7) {
+            playerRef.sendMessage(MessageUtil.error(usage));
+            return;
+        }
+
+        int[] coords = new int[6];
+        for (int i = 0; i < coords.length; i++) {
+            try {
+                coords[i] = Integer.parseInt(args[i + 1]);
+            } catch (NumberFormatException e) {
+                playerRef.sendMessage(MessageUtil.error(
+                        String.format(configManager.getMessages().invalidNumber, args[i + 1])));
+                return;
+            }
+        }
+        String worldName = args.length > 7 ? args[7] : world.getName();
+
+        switch (args[0].toLowerCase()) {
+            case "count" -> {
+                int count = placedBlockManager.countRegion(worldName, coords[0], coords[1], coords[2], coords[3],
+                        coords[4], coords[5]);
+                playerRef.sendMessage(MessageUtil.success(
+                        String.format(configManager.getMessages().adminPlacedCount, count)));
+            }
+            case "purge" -> {
+                int count = placedBlockManager.removeRegion(worldName, coords[0], coords[1], coords[2], coords[3],
+                        coords[4], coords[5]);
+                playerRef.sendMessage(MessageUtil.success(
+                        String.format(configManager.getMessages().adminPlacedPurge, count)));
+            }
+            default -> playerRef.sendMessage(MessageUtil.error(usage));
+        }
+    }
+
+    private void handlePlacedPlayer(PlayerRef playerRef, String action, String playerName) {
+        // Offline players, e.g. banned ones, can be given by UUID
+        UUID targetUuid;
+        String targetName = playerName;
+        PlayerRef target = findPlayer(playerName);
+        if (target != null) {
+            targetUuid = target.getUuid();
+            targetName = target.getUsername();
+        } else {
+            try {
+                targetUuid = UUID.fromString(playerName);
+            } catch (IllegalArgumentException e) {
+                playerRef.sendMessage(MessageUtil.error(
+                        String.format(configManager.getMessages().playerNotFound, playerName)));
+                return;
+            }
+        }
+
+        switch (action.toLowerCase()) {
+            case "info" -> playerRef.sendMessage(MessageUtil.info(String.format(
+                    configManager.getMessages().adminPlacedInfo, targetName,
+                    placedBlockManager.getPlacedCount(targetUuid),
+                    placedBlockManager.getPlacedRegionCount(targetUuid))));
+            case "purge" -> {
+                int count = placedBlockManager.removeByPlacer(targetUuid);
+                playerRef.sendMessage(MessageUtil.success(
+                        String.format(configManager.getMessages().adminPlacedPurgePlayer, count, targetName)));
+            }
+            default -> playerRef.sendMessage(MessageUtil.error("Usage: /jobadmin placed <info|purge> <joueur|uuid>"));
+        }
+    }
+
+    // Backups run on the storage thread, results are reported when they complete
+    private void handleBackup(PlayerRef playerRef, String action, String idStr) {
+        ConfigManager.Messages messages = configManager.getMessages();
+        switch (action.toLowerCase()) {
+            case "list" -> {
+                List<BackupManager.Backup> backups;
+                try {
+                    backups = dataManager.listBackups();
+                } catch (IOException e) {
+                    playerRef.sendMessage(MessageUtil.error(String.format(messages.adminBackupFailed, e.getMessage())));
+                    return;
+                }
+                if (backups.isEmpty()) {
+                    playerRef.sendMessage(MessageUtil.info(messages.adminBackupNone));
+                    return;
+                }
+                playerRef.sendMessage(MessageUtil.info(messages.adminBackupHeader));
+                for (BackupManager.Backup backup : backups) {
+                    playerRef.sendMessage(MessageUtil.raw(String.format(messages.adminBackupEntry, backup.id(),
+                            BACKUP_DATE.format(Instant.ofEpochMilli(backup.timestamp())), backupType(backup),
+                            backup.profiles(), formatSize(backup.size()))));
+                }
+            }
+            case "now" -> dataManager.backupNow().whenComplete((backup, error) -> {
+                if (error != null) {
+                    playerRef.sendMessage(MessageUtil.error(String.format(messages.adminBackupFailed,
+                            error.getMessage())));
+                } else {
+                    playerRef.sendMessage(MessageUtil.success(String.format(messages.adminBackupCreated,
+                            backup.id(), backupType(backup), backup.profiles(), formatSize(backup.size()))));
+                }
+            });
+            case "restore" -> {
+                long id;
+                try {
+                    id = Long.parseLong(idStr);
+                } catch (NumberFormatException e) {
+                    playerRef.sendMessage(MessageUtil.error("Usage: /jobadmin backup restore <id>"));
+                    return;
+                }
+                dataManager.restoreBackup(id).whenComplete((count, error) -> {
+                    if (error != null) {
+                        playerRef.sendMessage(MessageUtil.error(String.format(messages.adminBackupFailed,
+                                error.getMessage())));
+                    } else if (count < 0) {
+                        playerRef.sendMessage(MessageUtil.error(String.format(messages.adminBackupNotFound, idStr)));
+                    } else {
+                        playerRef.sendMessage(MessageUtil.success(String.format(messages.adminBackupRestored,
+                                count, id)));
+                    }
+                });
+            }
+            default -> playerRef.sendMessage(MessageUtil.error("Usage: /jobadmin backup <list|now|restore> [id]"));
+        }
+    }
+
+    private static String backupType(BackupManager.Backup backup) {
+        return backup.full() ? "complète" : "delta";
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024)
+            return bytes + " o";
+        if (bytes < 1024 * 1024)
+            return String.format("%.1f Ko", bytes / 1024.0);
+        return String.format("%.1f Mo", bytes / (1024.0 * 1024));
+    }
+
+    // Offline players are loaded from storage through the profile cache
+    private JobPlayer findProfile(String name) {
+        PlayerRef online = findPlayer(name);
+        if (online != null)
+            return jobManager.getOrCreatePlayer(online.getUuid(), online.getUsername());
+        return jobManager.findPlayerByName(name);
+    }
+
     private PlayerRef findPlayer(String name) {
         for (PlayerRef pr : Universe.get().getPlayers()) {
             if (pr.getUsername().equalsIgnoreCase(name)) {
@@ -19,10 +19,12 @@ import fr.snoof.jobs.ui.JobsMainPage;
 import fr.snoof.jobs.util.MessageUtil;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 public class JobCommand extends AbstractPlayerCommand {
+    private static final int TOP_SIZE = 10;
 
     private final EcoJobsPlugin plugin;
     private final JobManager jobManager;
@@ -86,8 +88,9 @@ public class JobCommand extends AbstractPlayerCommand {
             playerRef.sendMessage(MessageUtil.error(configManager.getMessages().noPermission));
             return;
         }
-        jobManager.reload();
-        playerRef.sendMessage(MessageUtil.success("Configuration rechargée."));
+        jobManager.reload().thenAccept(reloaded -> playerRef.sendMessage(reloaded
+                ? MessageUtil.success(configManager.getMessages().adminReload)
+                : MessageUtil.error(configManager.getMessages().adminReloadFailed)));
     }
 
     private void showHelp(PlayerRef playerRef) {
@@ -105,11 +108,13 @@ public class JobCommand extends AbstractPlayerCommand {
             return;
         }
 
-        if (jobManager.assignJob(playerRef, jobName)) {
-            playerRef.sendMessage(MessageUtil.success("Job rejoint!"));
+        JobManager.JoinResult result = jobManager.assignJob(playerRef, jobName);
+        if (result == JobManager.JoinResult.JOINED) {
+            playerRef.sendMessage(MessageUtil.success(String.format(configManager.getMessages().jobJoined,
+                    JobType.fromString(jobName).getDisplayName())));
             refreshGuiIfOpen(context, playerRef, ref, store, world);
         } else {
-            playerRef.sendMessage(MessageUtil.error("Impossible de rejoindre ce job (déjà rejoint ? ou invalide)."));
+            playerRef.sendMessage(MessageUtil.error(jobManager.getJoinFailureMessage(result, jobName)));
         }
     }
 
@@ -209,7 +214,40 @@ public class JobCommand extends AbstractPlayerCommand {
     }
 
     private void handleTop(PlayerRef playerRef, String jobName) {
-        playerRef.sendMessage(MessageUtil.info("Voir le classement dans l'interface /job"));
+        if (jobName.isEmpty()) {
+            // Podium of every job
+            for (JobType type : JobType.values()) {
+                showTop(playerRef, type, 3);
+            }
+            return;
+        }
+
+        JobType type = JobType.fromString(jobName);
+        if (type == null) {
+            playerRef.sendMessage(MessageUtil.error(String.format(configManager.getMessages().invalidJob, jobName)));
+            return;
+        }
+        showTop(playerRef, type, TOP_SIZE);
+    }
+
+    private void showTop(PlayerRef playerRef, JobType type, int limit) {
+        ConfigManager.Messages messages = configManager.getMessages();
+        playerRef.sendMessage(MessageUtil.info(String.format(messages.topHeader, type.getDisplayName())));
+        List<JobManager.Records.TopPlayerEntry> entries = jobManager.getTopPlayersForJob(type.name(), limit);
+        if (entries.isEmpty()) {
+            playerRef.sendMessage(MessageUtil.raw(messages.topEmpty));
+            return;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            JobManager.Records.TopPlayerEntry entry = entries.get(i);
+            playerRef.sendMessage(MessageUtil.raw(String.format(messages.topEntry, i + 1, entry.playerName(),
+                    entry.level())));
+        }
+        int rank = jobManager.getRank(playerRef.getUuid(), type);
+        if (rank > 0) {
+            playerRef.sendMessage(MessageUtil.raw(String.format(messages.topRank, rank,
+                    jobManager.getRankedCount(type))));
+        }
     }
 
     private void handleRewards(PlayerRef playerRef) {
@@ -3,83 +3,159 @@ package fr.snoof.jobs.config;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import fr.snoof.jobs.model.JobReward;
+import fr.snoof.jobs.model.JobRewardAdapter;
 import fr.snoof.jobs.model.JobType;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import com.hypixel.hytale.logger.HytaleLogger;
 import java.util.logging.Level;
 
 public class ConfigManager {
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(JobReward.class, new JobRewardAdapter())
+            .setPrettyPrinting()
+            .create();
+    private static final int DEFAULT_PLACED_BLOCK_TTL_DAYS = 7;
+
+    private static final String CONFIG_FILE = "config.json";
+    private static final String MESSAGES_FILE = "messages.json";
 
     private final Path dataFolder;
     private final HytaleLogger logger;
-    private Config config;
-    private Messages messages;
+    // Config, messages and everything compiled from them, swapped as a whole on reload
+    private volatile ConfigSnapshot snapshot;
+    // When the files of the snapshot were last modified, so save() does not overwrite a later edit
+    private FileTime configModified;
+    private FileTime messagesModified;
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor();
+    private ConfigWatcher watcher;
 
     public ConfigManager(Path dataFolder, HytaleLogger logger) {
         this.dataFolder = dataFolder;
         this.logger = logger;
     }
 
-    public void load() {
+    public synchronized void load() {
         try {
             Files.createDirectories(dataFolder);
-            loadConfig();
-            loadMessages();
+            snapshot = read(true);
+        } catch (IOException | RuntimeException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to load configuration, using the defaults");
+            snapshot = ConfigSnapshot.build(createDefaultConfig(), new Messages(), logger, true);
+        }
+    }
+
+    /**
+     * Reads config.json and messages.json again on the calling thread, and swaps in
+     * the new snapshot only if both are valid; readers keep the current one until then.
+     *
+     * @return false if the files are invalid, the current configuration is kept
+     */
+    public synchronized boolean reload() {
+        try {
+            snapshot = read(false);
+            logger.at(Level.INFO).log("Configuration reloaded");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.at(Level.WARNING).withCause(e).log("Invalid configuration, keeping the current one");
+            return false;
+        }
+    }
+
+    /**
+     * {@link #reload()} on the reload thread, e.g. for a command run on a world thread.
+     */
+    public CompletableFuture<Boolean> reloadAsync() {
+        return CompletableFuture.supplyAsync(this::reload, reloader);
+    }
+
+    /**
+     * Starts reloading when config.json or messages.json change on disk, if autoReload is on.
+     */
+    public void initAutoReload() {
+        if (!getConfig().autoReload)
+            return;
+        watcher = new ConfigWatcher(dataFolder, Set.of(CONFIG_FILE, MESSAGES_FILE), this::reload, logger);
+        try {
+            watcher.start();
+            logger.at(Level.INFO).log("Configuration reloaded automatically when edited");
         } catch (IOException e) {
-            logger.at(Level.SEVERE).withCause(e).log("Failed to load configuration");
+            logger.at(Level.WARNING).withCause(e).log("Failed to watch the configuration files");
+            watcher.close();
+            watcher = null;
         }
     }
 
-    public void loadConfig() throws IOException {
-        Path configFile = dataFolder.resolve("config.json");
-        if (Files.exists(configFile)) {
-            try (Reader reader = Files.newBufferedReader(configFile)) {
-                config = GSON.fromJson(reader, Config.class);
-            }
-        } else {
-            config = createDefaultConfig();
-            saveConfig();
+    public void shutdown() {
+        if (watcher != null)
+            watcher.close();
+        reloader.shutdown();
+        try {
+            reloader.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void loadMessages() throws IOException {
-        Path messagesFile = dataFolder.resolve("messages.json");
-        if (Files.exists(messagesFile)) {
-            try (Reader reader = Files.newBufferedReader(messagesFile)) {
-                messages = GSON.fromJson(reader, Messages.class);
-            }
-        } else {
-            messages = new Messages();
-            saveMessages();
+    private ConfigSnapshot read(boolean lenient) throws IOException {
+        Path configFile = dataFolder.resolve(CONFIG_FILE);
+        Path messagesFile = dataFolder.resolve(MESSAGES_FILE);
+        Config config;
+        Messages messages;
+        if (!Files.exists(configFile))
+            write(configFile, createDefaultConfig());
+        // Taken before reading, an edit made meanwhile then counts as newer
+        FileTime configTime = Files.getLastModifiedTime(configFile);
+        try (Reader reader = Files.newBufferedReader(configFile)) {
+            config = GSON.fromJson(reader, Config.class);
+        }
+        if (!Files.exists(messagesFile))
+            write(messagesFile, new Messages());
+        FileTime messagesTime = Files.getLastModifiedTime(messagesFile);
+        try (Reader reader = Files.newBufferedReader(messagesFile)) {
+            messages = GSON.fromJson(reader, Messages.class);
         }
+
+        ConfigSnapshot next = ConfigSnapshot.build(config, messages, logger, lenient);
+        configModified = configTime;
+        messagesModified = messagesTime;
+        return next;
     }
 
-    public void save() {
+    public synchronized void save() {
+        ConfigSnapshot current = snapshot;
         try {
-            saveConfig();
-            saveMessages();
+            saveIfUnchanged(CONFIG_FILE, current.config(), configModified);
+            saveIfUnchanged(MESSAGES_FILE, current.messages(), messagesModified);
         } catch (IOException e) {
             logger.at(Level.SEVERE).withCause(e).log("Failed to save configuration");
         }
     }
 
-    private void saveConfig() throws IOException {
-        Path configFile = dataFolder.resolve("config.json");
-        try (Writer writer = Files.newBufferedWriter(configFile)) {
-            GSON.toJson(config, writer);
+    // An edit that was not loaded, e.g. an invalid one, would otherwise be lost
+    private void saveIfUnchanged(String name, Object value, FileTime loaded) throws IOException {
+        Path file = dataFolder.resolve(name);
+        if (Files.exists(file) && !Files.getLastModifiedTime(file).equals(loaded)) {
+            logger.at(Level.WARNING).log(name + " was edited since it was loaded, not overwriting it");
+            return;
         }
+        write(file, value);
     }
 
-    private void saveMessages() throws IOException {
-        Path messagesFile = dataFolder.resolve("messages.json");
-        try (Writer writer = Files.newBufferedWriter(messagesFile)) {
-            GSON.toJson(messages, writer);
+    private static void write(Path file, Object value) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            GSON.toJson(value, writer);
         }
     }
 
@@ -90,6 +166,24 @@ public class ConfigManager {
         cfg.maxLevel = 100;
         cfg.showRewardMessages = true;
         cfg.autoSaveInterval = 300;
+        cfg.storage = "json";
+        cfg.prettyJson = true;
+        cfg.offlineCacheSize = 1000;
+        cfg.archiveAfterDays = 90;
+        cfg.progressionCheckpointEvents = 50000;
+        cfg.backupIntervalMinutes = 60;
+        cfg.backupFullEvery = 23;
+        cfg.backupRetention = 7;
+        cfg.autoReload = false;
+        cfg.placedBlocksCheckpointInterval = 300;
+
+        // How long placed blocks are remembered, per reward category (0 = forever)
+        cfg.placedBlocksTtlDays = new HashMap<>();
+        cfg.placedBlocksTtlDays.put("crops", 30);
+        cfg.placedBlocksTtlDays.put("blocks", 7);
+        cfg.placedBlocksTtlDays.put("wood", 7);
+        cfg.placedBlocksTtlDays.put("default", 7);
+        cfg.maxTrackedBlocksPerPlayer = 0;
 
         // Block rewards (MINER)
         cfg.blockRewards = new HashMap<>();
@@ -178,54 +272,110 @@ public class ConfigManager {
         return cfg;
     }
 
+    public ConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     public Config getConfig() {
-        return config;
+        return snapshot.config();
     }
 
     public Messages getMessages() {
-        return messages;
+        return snapshot.messages();
     }
 
-    public long getXpRequired(int level) {
-        // Simple formula: level * 100
-        return (long) level * config.maxLevel;
+    public RewardIndex getRewardIndex() {
+        return snapshot.rewards();
     }
 
-    public JobReward getBlockReward(String blockId) {
-        return config.blockRewards.getOrDefault(blockId.toLowerCase(), null);
+    public XpCurve getXpCurve() {
+        return snapshot.xpCurve();
     }
 
-    public JobReward getWoodReward(String blockId) {
-        return config.woodRewards.getOrDefault(blockId.toLowerCase(), null);
+    public long getXpRequired(int level) {
+        return snapshot.xpCurve().getRequired(level);
     }
 
-    public JobReward getCropReward(String blockId) {
-        return config.cropRewards.getOrDefault(blockId.toLowerCase(), null);
+    /**
+     * Whether placing this block needs to be tracked: only blocks with a crop,
+     * block or wood reward are ever looked up when broken.
+     */
+    public boolean isPlacedBlockTracked(String blockId) {
+        return snapshot.rewards().resolve(RewardIndex.Action.BREAK, blockId) != null;
     }
 
-    public JobReward getMobReward(String mobId) {
-        return config.mobRewards.getOrDefault(mobId.toLowerCase(), null);
+    /**
+     * How long a placement of this block is remembered, from the category of the
+     * reward map it appears in.
+     *
+     * @return the time to live in hours, 0 if it never expires
+     */
+    public int getPlacedBlockTtlHours(String blockId) {
+        ConfigSnapshot current = snapshot;
+        RewardIndex rewards = current.rewards();
+        String category = "default";
+        if (rewards.resolve(RewardIndex.Action.HARVEST, blockId) != null) {
+            category = "crops";
+        } else {
+            RewardIndex.Entry entry = rewards.resolve(RewardIndex.Action.BREAK, blockId);
+            if (entry != null && entry.job() == JobType.MINER) {
+                category = "blocks";
+            } else if (entry != null && entry.job() == JobType.LUMBERJACK) {
+                category = "wood";
+            }
+        }
+        return ttlDays(current.config(), category) * 24;
     }
 
-    public JobReward getLegendMobReward(String mobId) {
-        return config.legendMobRewards.getOrDefault(mobId.toLowerCase(), null);
+    /**
+     * @return the shortest non-zero placed block time to live in hours, 0 if nothing expires
+     */
+    public int getShortestPlacedBlockTtlHours() {
+        Config config = snapshot.config();
+        int shortest = 0;
+        for (String category : new String[] { "crops", "blocks", "wood", "default" }) {
+            int days = ttlDays(config, category);
+            if (days > 0 && (shortest == 0 || days < shortest))
+                shortest = days;
+        }
+        return shortest * 24;
     }
 
-    public JobReward getCraftReward(String itemId) {
-        return config.craftRewards.getOrDefault(itemId.toLowerCase(), null);
+    private static int ttlDays(Config config, String category) {
+        Map<String, Integer> ttl = config.placedBlocksTtlDays;
+        Integer days = ttl != null ? ttl.getOrDefault(category, ttl.get("default")) : null;
+        return days != null ? Math.max(days, 0) : DEFAULT_PLACED_BLOCK_TTL_DAYS;
     }
 
-    public JobReward getFurnitureReward(String itemId) {
-        return config.furnitureRewards.getOrDefault(itemId.toLowerCase(), null);
+    /**
+     * @return the maximum number of members of the job, 0 if unlimited
+     */
+    public int getJobCapacity(JobType type) {
+        Map<String, Integer> capacity = snapshot.config().jobCapacity;
+        Integer max = capacity != null ? capacity.get(type.name().toLowerCase()) : null;
+        return max != null ? Math.max(max, 0) : 0;
     }
 
     public static class Config {
         public String version = "1.0.0";
         public String xpFormula = "level * 100";
         public int maxLevel = 100;
-        public int maxJobs = 3; // Max jobs a player can have at once
+        public int maxJobs = 3; // Max jobs a player can have at once, 0 = unlimited
+        public Map<String, Integer> jobCapacity = new HashMap<>(); // Max members per job id, absent or 0 = unlimited
         public boolean showRewardMessages = true;
         public int autoSaveInterval = 300;
+        public String storage = "json"; // "json", "binary" or "sqlite"
+        public boolean prettyJson = true; // Indented player files, easier to read but larger
+        public int offlineCacheSize = 1000; // Offline profiles kept in memory
+        public int archiveAfterDays = 90; // Inactivity before a profile is archived, 0 = never
+        public int progressionCheckpointEvents = 50000; // Logged XP gains that start a save early, 0 = never
+        public int backupIntervalMinutes = 60; // 0 = only on /jobadmin backup now
+        public int backupFullEvery = 23; // Delta backups between two full ones
+        public int backupRetention = 7; // Full backups kept, with their deltas
+        public boolean autoReload = false; // Reload config.json and messages.json when edited, applies on restart
+        public int placedBlocksCheckpointInterval = 300;
+        public Map<String, Integer> placedBlocksTtlDays = new HashMap<>();
+        public int maxTrackedBlocksPerPlayer = 0; // Placed blocks remembered per player, 0 = unlimited
         public long pvpKillXp = 100;
         public double pvpKillMoney = 25.0;
 
@@ -236,6 +386,8 @@ public class ConfigManager {
         public Map<String, JobReward> legendMobRewards = new HashMap<>();
         public Map<String, JobReward> craftRewards = new HashMap<>();
         public Map<String, JobReward> furnitureRewards = new HashMap<>();
+        // Tag name -> ids or glob patterns, used as "#name" in the reward keys
+        public Map<String, List<String>> rewardTags = new HashMap<>();
     }
 
     public static class Messages {
@@ -259,18 +411,33 @@ public class ConfigManager {
 
         public String topHeader = "§6=== Top %s ===";
         public String topEntry = "§e%d. §f%s §7- Niveau §e%d";
+        public String topRank = "§7Votre rang: §e#%d §7sur §e%d";
+        public String topEmpty = "§7Personne n'a encore rejoint ce métier.";
 
         public String adminSetLevel = "§aNiveau de %s en %s défini à %d.";
         public String adminSetXp = "§aXP de %s en %s défini à %d.";
         public String adminAddXp = "§aAjouté %d XP à %s en %s.";
         public String adminReset = "§aMétier(s) de %s réinitialisé(s).";
         public String adminReload = "§aConfiguration rechargée.";
+        public String adminReloadFailed = "§cConfiguration invalide, l'ancienne est conservée. Voir la console.";
         public String adminInfo = "§6=== Stats de %s ===";
+        public String adminPlacedCount = "§a%d bloc(s) posé(s) suivi(s) dans cette zone.";
+        public String adminPlacedPurge = "§a%d bloc(s) posé(s) oublié(s) dans cette zone.";
+        public String adminPlacedInfo = "§6%s §7a §e%d §7bloc(s) posé(s) suivi(s) dans §e%d §7région(s).";
+        public String adminPlacedPurgePlayer = "§a%d bloc(s) posé(s) par %s oublié(s).";
+        public String adminBackupCreated = "§aSauvegarde §e#%d §a(%s) créée: %d profil(s), %s.";
+        public String adminBackupHeader = "§6=== Sauvegardes ===";
+        public String adminBackupEntry = "  §e#%d §7- %s, %s, %d profil(s), %s";
+        public String adminBackupNone = "§7Aucune sauvegarde.";
+        public String adminBackupRestored = "§a%d profil(s) restauré(s) depuis la sauvegarde §e#%d§a.";
+        public String adminBackupNotFound = "§cSauvegarde introuvable: %s";
+        public String adminBackupFailed = "§cÉchec de la sauvegarde: %s";
         // Job join/leave messages
         public String jobJoined = "§aVous avez rejoint le métier §e%s§a!";
         public String jobLeft = "§eVous avez quitté le métier §6%s§e.";
         public String jobAlreadyJoined = "§cVous avez déjà rejoint ce métier.";
         public String jobNotJoined = "§cVous n'avez pas rejoint ce métier.";
+        public String jobFull = "§cLe métier §e%s §cest complet (%d membres).";
         public String jobLimitReached = "§cVous avez atteint la limite de %d métiers. Quittez un métier avec §e/job leave <métier>§c.";
         public String noJobsJoined = "§7Vous n'avez rejoint aucun métier.";
         public String yourJobs = "§6=== Vos Métiers Actifs ===";
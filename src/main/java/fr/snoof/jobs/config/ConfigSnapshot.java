@@ -0,0 +1,90 @@
+package fr.snoof.jobs.config;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * One loaded configuration with everything compiled from it: the reward index and
+ * XP curve next to the config and messages they come from. {@link ConfigManager}
+ * publishes it through a single volatile reference, so a world thread always sees
+ * a config, messages, rewards and curve that belong together, even mid-reload.
+ * <p>
+ * Immutable: the maps of the config are frozen when it is built, a reload builds
+ * a new snapshot.
+ */
+public record ConfigSnapshot(ConfigManager.Config config, ConfigManager.Messages messages, RewardIndex rewards,
+        XpCurve xpCurve) {
+
+    /**
+     * Checks and compiles a freshly read config and messages, which must not be used
+     * elsewhere afterwards. Missing reward maps are empty and missing messages take
+     * their default text.
+     *
+     * @param lenient whether an invalid xpFormula falls back to the default one
+     *                instead of rejecting the config, e.g. on startup where there is
+     *                no previous config to keep
+     * @throws IllegalArgumentException if the config is invalid
+     */
+    public static ConfigSnapshot build(ConfigManager.Config config, ConfigManager.Messages messages,
+            HytaleLogger logger, boolean lenient) {
+        if (config == null)
+            throw new IllegalArgumentException("config.json is empty");
+        if (messages == null)
+            throw new IllegalArgumentException("messages.json is empty");
+
+        config.blockRewards = freeze(config.blockRewards);
+        config.woodRewards = freeze(config.woodRewards);
+        config.cropRewards = freeze(config.cropRewards);
+        config.mobRewards = freeze(config.mobRewards);
+        config.legendMobRewards = freeze(config.legendMobRewards);
+        config.craftRewards = freeze(config.craftRewards);
+        config.furnitureRewards = freeze(config.furnitureRewards);
+        config.jobCapacity = freeze(config.jobCapacity);
+        config.placedBlocksTtlDays = freeze(config.placedBlocksTtlDays);
+        Map<String, List<String>> tags = new LinkedHashMap<>();
+        if (config.rewardTags != null) {
+            config.rewardTags.forEach((tag, members) -> tags.put(tag, members != null ? List.copyOf(members) : null));
+        }
+        config.rewardTags = Collections.unmodifiableMap(tags);
+
+        XpCurve xpCurve;
+        try {
+            xpCurve = XpCurve.compile(config.xpFormula, config.maxLevel);
+        } catch (IllegalArgumentException e) {
+            if (!lenient)
+                throw e;
+            logger.at(Level.WARNING).log("Invalid xpFormula, using \"" + XpCurve.DEFAULT_FORMULA + "\": "
+                    + e.getMessage());
+            xpCurve = XpCurve.compile(XpCurve.DEFAULT_FORMULA, config.maxLevel);
+        }
+
+        fillMissingMessages(messages);
+        return new ConfigSnapshot(config, messages, RewardIndex.build(config, logger), xpCurve);
+    }
+
+    private static <K, V> Map<K, V> freeze(Map<K, V> map) {
+        return map != null ? Collections.unmodifiableMap(new LinkedHashMap<>(map)) : Map.of();
+    }
+
+    // A message removed from messages.json would otherwise print "null"
+    private static void fillMissingMessages(ConfigManager.Messages messages) {
+        ConfigManager.Messages defaults = new ConfigManager.Messages();
+        for (Field field : ConfigManager.Messages.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()))
+                continue;
+            try {
+                if (field.get(messages) == null)
+                    field.set(messages, field.get(defaults));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package fr.snoof.jobs.config;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Watches the data folder and runs a reload when one of the given files changes.
+ * Changes are debounced, since editors often write a file in several steps, and
+ * the reload runs on the watcher thread, never on a world thread.
+ */
+class ConfigWatcher {
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    private final Path folder;
+    private final Set<String> files;
+    private final Runnable reload;
+    private final HytaleLogger logger;
+    private final ExecutorService thread = Executors.newSingleThreadExecutor();
+    private WatchService watchService;
+
+    ConfigWatcher(Path folder, Set<String> files, Runnable reload, HytaleLogger logger) {
+        this.folder = folder;
+        this.files = files;
+        this.reload = reload;
+        this.logger = logger;
+    }
+
+    void start() throws IOException {
+        watchService = folder.getFileSystem().newWatchService();
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread.execute(this::run);
+    }
+
+    void close() {
+        try {
+            if (watchService != null)
+                watchService.close();
+        } catch (IOException e) {
+            logger.at(Level.WARNING).withCause(e).log("Failed to close the config watcher");
+        }
+        thread.shutdownNow();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (!drain(watchService.take()))
+                    continue;
+                // Waits until the files stay untouched for a moment
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key);
+                }
+                try {
+                    reload.run();
+                } catch (RuntimeException e) {
+                    logger.at(Level.SEVERE).withCause(e).log("Failed to reload the configuration");
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    // Whether one of the watched files changed, or events were lost
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (event.context() instanceof Path file && files.contains(file.toString())))
+                changed = true;
+        }
+        key.reset();
+        return changed;
+    }
+}
@@ -0,0 +1,220 @@
+package fr.snoof.jobs.config;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import fr.snoof.jobs.model.JobReward;
+import fr.snoof.jobs.model.JobType;
+import fr.snoof.jobs.util.GlobTrie;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Every reward of the config, by the action that earns it, resolved once per
+ * config load. For each action an id resolves to a single entry, the job that
+ * wins it included, so an event needs one lookup instead of trying each reward
+ * map in turn: breaking checks blocks, then wood, then crops; killing checks
+ * legendary mobs, then mobs; crafting checks crafts, then furniture.
+ * <p>
+ * Reward keys may also be glob patterns such as {@code *_log}, or {@code #tag}
+ * for every id or pattern listed under that tag in {@link ConfigManager.Config#rewardTags}.
+ * An id listed as is wins over any pattern, otherwise the most specific pattern
+ * wins (see {@link GlobTrie}), then the reward map checked first.
+ * <p>
+ * Raw ids as the server sends them, e.g. {@code hytale:oak_log}, are normalized
+ * once and their entries for every action remembered. Better still, listeners
+ * holding the asset of the event (block type, recipe, item) resolve through the
+ * asset itself: each asset instance of the server registries is resolved from
+ * its id the first time it is seen, then found by identity with no string work.
+ * Ids unknown to the config, e.g. modded assets, just resolve to nothing.
+ * <p>
+ * Immutable apart from those caches; a reload builds a new index and swaps it in,
+ * which also resolves every asset again.
+ */
+public final class RewardIndex {
+    // Raw ids come from a finite set of assets, the bound only guards against a leak
+    private static final int MAX_CACHED_IDS = 8192;
+    private static final Entry[] NO_ENTRIES = new Entry[Action.values().length];
+
+    public enum Action {
+        BREAK, HARVEST, KILL, CRAFT
+    }
+
+    /**
+     * @param flags {@link #CULTIVATED_ONLY} and {@link #SCALED}
+     */
+    public record Entry(JobType job, JobReward reward, int flags) {
+        /** Only paid to the player who placed the block. */
+        public static final int CULTIVATED_ONLY = 1;
+        /** Multiplied by the quantity, e.g. of crafted items. */
+        public static final int SCALED = 2;
+
+        public boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        public JobReward scaled(int quantity) {
+            if (!has(SCALED) || quantity == 1)
+                return reward;
+            return new JobReward(reward.getXp() * quantity, reward.getMoney() * quantity);
+        }
+    }
+
+    private final Map<Action, Map<String, Entry>> entries;
+    private final Map<Action, GlobTrie<Entry>> patterns;
+    // Raw id -> entry per action ordinal, null where the id earns nothing
+    private final Map<String, Entry[]> resolved = new ConcurrentHashMap<>();
+    // Asset instance -> entry per action ordinal. Copied on write: assets are only
+    // added the first time they are seen, and reads need no lock nor hashing of the id
+    private volatile Map<Object, Entry[]> resolvedAssets = new IdentityHashMap<>();
+
+    private RewardIndex(Map<Action, Map<String, Entry>> entries, Map<Action, GlobTrie<Entry>> patterns) {
+        this.entries = entries;
+        this.patterns = patterns;
+    }
+
+    public static RewardIndex build(ConfigManager.Config config, HytaleLogger logger) {
+        Builder builder = new Builder(config.rewardTags, logger);
+        // Added lowest precedence last, without replacing earlier entries
+        builder.add(Action.BREAK, config.blockRewards, JobType.MINER, 0);
+        builder.add(Action.BREAK, config.woodRewards, JobType.LUMBERJACK, 0);
+        builder.add(Action.BREAK, config.cropRewards, JobType.FARMER, Entry.CULTIVATED_ONLY);
+        builder.add(Action.HARVEST, config.cropRewards, JobType.FARMER, 0);
+        builder.add(Action.KILL, config.legendMobRewards, JobType.CHAMPION, 0);
+        builder.add(Action.KILL, config.mobRewards, JobType.HUNTER, 0);
+        builder.add(Action.CRAFT, config.craftRewards, JobType.BLACKSMITH, Entry.SCALED);
+        builder.add(Action.CRAFT, config.furnitureRewards, JobType.LUMBERJACK, Entry.SCALED);
+
+        Map<Action, Map<String, Entry>> frozen = new EnumMap<>(Action.class);
+        builder.entries.forEach((action, map) -> frozen.put(action, Map.copyOf(map)));
+        return new RewardIndex(frozen, builder.patterns);
+    }
+
+    private static final class Builder {
+        final Map<Action, Map<String, Entry>> entries = new EnumMap<>(Action.class);
+        final Map<Action, GlobTrie<Entry>> patterns = new EnumMap<>(Action.class);
+        final Map<String, List<String>> tags;
+        final HytaleLogger logger;
+
+        Builder(Map<String, List<String>> tags, HytaleLogger logger) {
+            this.tags = tags != null ? tags : Map.of();
+            this.logger = logger;
+            for (Action action : Action.values()) {
+                entries.put(action, new HashMap<>());
+                patterns.put(action, new GlobTrie<>());
+            }
+        }
+
+        void add(Action action, Map<String, JobReward> rewards, JobType job, int flags) {
+            if (rewards == null)
+                return;
+            rewards.forEach((key, reward) -> {
+                if (key == null || reward == null)
+                    return;
+                Entry entry = new Entry(job, reward, flags);
+                if (!key.startsWith("#")) {
+                    addKey(action, key, entry);
+                    return;
+                }
+                List<String> members = tags.get(key.substring(1));
+                if (members == null) {
+                    logger.at(Level.WARNING).log("Unknown reward tag " + key + ", add it to rewardTags");
+                    return;
+                }
+                for (String member : members) {
+                    if (member != null)
+                        addKey(action, member, entry);
+                }
+            });
+        }
+
+        private void addKey(Action action, String key, Entry entry) {
+            String id = normalizeId(key);
+            if (GlobTrie.isPattern(id)) {
+                patterns.get(action).add(id, entry);
+            } else {
+                entries.get(action).putIfAbsent(id, entry);
+            }
+        }
+    }
+
+    /**
+     * @param rawId the id as the server gives it, namespaced or not
+     * @return the reward earned by the action on this id, or null if none
+     */
+    public Entry resolve(Action action, String rawId) {
+        if (rawId == null)
+            return null;
+        Entry[] byAction = resolved.get(rawId);
+        if (byAction == null)
+            byAction = cache(rawId);
+        return byAction[action.ordinal()];
+    }
+
+    /**
+     * Resolves through the asset instance, its id is only read the first time
+     * this asset is seen.
+     *
+     * @param idOf gives the id of the asset as the server names it
+     * @return the reward earned by the action on this asset, or null if none
+     */
+    public <A> Entry resolve(Action action, A asset, Function<? super A, String> idOf) {
+        if (asset == null)
+            return null;
+        Entry[] byAction = resolvedAssets.get(asset);
+        if (byAction == null)
+            byAction = cacheAsset(asset, idOf.apply(asset));
+        return byAction[action.ordinal()];
+    }
+
+    private synchronized Entry[] cacheAsset(Object asset, String rawId) {
+        Entry[] byAction = rawId != null ? resolved.get(rawId) : NO_ENTRIES;
+        if (byAction == null)
+            byAction = cache(rawId);
+        Map<Object, Entry[]> assets = resolvedAssets.size() >= MAX_CACHED_IDS
+                ? new IdentityHashMap<>()
+                : new IdentityHashMap<>(resolvedAssets);
+        assets.put(asset, byAction);
+        resolvedAssets = assets;
+        return byAction;
+    }
+
+    private Entry[] cache(String rawId) {
+        String id = normalizeId(rawId);
+        Entry[] byAction = null;
+        for (Action action : Action.values()) {
+            Entry entry = entries.get(action).get(id);
+            if (entry == null && !patterns.get(action).isEmpty())
+                entry = patterns.get(action).match(id);
+            if (entry != null) {
+                if (byAction == null)
+                    byAction = new Entry[NO_ENTRIES.length];
+                byAction[action.ordinal()] = entry;
+            }
+        }
+        if (byAction == null)
+            byAction = NO_ENTRIES;
+        if (resolved.size() >= MAX_CACHED_IDS)
+            resolved.clear();
+        resolved.put(rawId, byAction);
+        return byAction;
+    }
+
+    /**
+     * Drops the namespace and lowercases, e.g. {@code Hytale:Oak_Log} becomes {@code oak_log}.
+     */
+    public static String normalizeId(String id) {
+        if (id == null)
+            return "";
+        int colonIndex = id.indexOf(':');
+        if (colonIndex >= 0) {
+            return id.substring(colonIndex + 1).toLowerCase();
+        }
+        return id.toLowerCase();
+    }
+}
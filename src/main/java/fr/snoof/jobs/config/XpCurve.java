@@ -0,0 +1,99 @@
+package fr.snoof.jobs.config;
+
+import fr.snoof.jobs.util.Expression;
+
+import java.util.Arrays;
+
+/**
+ * XP needed per level, computed once from {@link ConfigManager.Config#xpFormula}
+ * for every level up to the max level. Besides the XP to go from each level to
+ * the next, it keeps the XP needed to reach each level from level 1, so the level
+ * matching an amount of XP is a binary search instead of a loop over levels.
+ * <p>
+ * Immutable; a reload builds a new curve and swaps it in.
+ */
+public final class XpCurve {
+    public static final String DEFAULT_FORMULA = "level * 100";
+
+    private final String formula;
+    private final int maxLevel;
+    // Highest level whose cumulative XP fits in a long, the ones above are out of reach
+    private final int reachableLevel;
+    // XP to go from level i to i + 1, index 0 unused
+    private final long[] required;
+    // XP to reach level i from level 1, index 0 unused, strictly increasing from index 1 to
+    // reachableLevel, then saturated at Long.MAX_VALUE
+    private final long[] cumulative;
+
+    private XpCurve(String formula, int maxLevel, int reachableLevel, long[] required, long[] cumulative) {
+        this.formula = formula;
+        this.maxLevel = maxLevel;
+        this.reachableLevel = reachableLevel;
+        this.required = required;
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * Evaluates the formula, with the variables {@code level} and {@code maxLevel},
+     * for every level. Each level needs at least 1 XP.
+     *
+     * @throws IllegalArgumentException if the formula is malformed or not finite
+     */
+    public static XpCurve compile(String formula, int maxLevel) {
+        Expression expression = Expression.compile(formula, "level", "maxLevel");
+        maxLevel = Math.max(1, maxLevel);
+        long[] required = new long[maxLevel + 1];
+        long[] cumulative = new long[maxLevel + 1];
+        int reachableLevel = maxLevel;
+        for (int level = 1; level <= maxLevel; level++) {
+            double value = expression.evaluate(level, maxLevel);
+            if (Double.isNaN(value) || Double.isInfinite(value))
+                throw new IllegalArgumentException("XP formula \"" + formula + "\" is not finite at level " + level);
+            required[level] = Math.max(1, (long) Math.ceil(value));
+            if (level < maxLevel) {
+                long next = cumulative[level] + required[level];
+                // Saturates, a curve this steep cannot be reached anyway
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                    reachableLevel = Math.min(reachableLevel, level);
+                }
+                cumulative[level + 1] = next;
+            }
+        }
+        return new XpCurve(formula, maxLevel, reachableLevel, required, cumulative);
+    }
+
+    /**
+     * @return the XP needed to go from the level to the next one
+     */
+    public long getRequired(int level) {
+        return required[Math.max(1, Math.min(level, maxLevel))];
+    }
+
+    /**
+     * @return the XP needed to reach the level from level 1
+     */
+    public long getCumulative(int level) {
+        return cumulative[Math.max(1, Math.min(level, maxLevel))];
+    }
+
+    /**
+     * @return the highest level reached with this much XP counted from level 1
+     */
+    public int getLevel(long xpFromLevelOne) {
+        if (xpFromLevelOne <= 0)
+            return 1;
+        // Only the strictly increasing part, a search among saturated duplicates may land on any of them
+        int index = Arrays.binarySearch(cumulative, 1, reachableLevel + 1, xpFromLevelOne);
+        // Not found: the insertion point is the first level needing more XP
+        return index >= 0 ? index : -index - 2;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    public String getFormula() {
+        return formula;
+    }
+}
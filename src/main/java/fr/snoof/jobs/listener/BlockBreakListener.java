@@ -6,16 +6,17 @@ import com.hypixel.hytale.component.CommandBuffer;
 import com.hypixel.hytale.component.Store;
 import com.hypixel.hytale.component.query.Query;
 import com.hypixel.hytale.component.system.EntityEventSystem;
+import com.hypixel.hytale.server.core.asset.type.blocktype.config.BlockType;
 import com.hypixel.hytale.server.core.entity.UUIDComponent;
 import com.hypixel.hytale.server.core.event.events.ecs.BreakBlockEvent;
 import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.Universe;
 import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import fr.snoof.jobs.config.ConfigManager;
+import fr.snoof.jobs.config.RewardIndex;
 import fr.snoof.jobs.manager.JobManager;
 import fr.snoof.jobs.manager.PlacedBlockManager;
-import fr.snoof.jobs.model.JobReward;
-import fr.snoof.jobs.model.JobType;
+import fr.snoof.jobs.model.PlacedBlock;
 
 import javax.annotation.Nonnull;
 import java.util.UUID;
@@ -48,66 +49,38 @@ public class BlockBreakListener extends EntityEventSystem<EntityStore, BreakBloc
         if (playerRef == null)
             return;
 
-        String blockId = event.getBlockType().getId();
-        // Fallback: If event says "Empty" or null, try to retrieve from
-        // PlacedBlockManager
+        BlockType blockType = event.getBlockType();
+        String world = store.getExternalData().getWorld().getName();
         int x = event.getTargetBlock().getX();
         int y = event.getTargetBlock().getY();
         int z = event.getTargetBlock().getZ();
 
-        UUID placerUuid = placedBlockManager.getPlacer(x, y, z);
-        String placedBlockId = placedBlockManager.getPlacedBlockId(x, y, z);
-
-        if ((blockId == null || blockId.equals("Empty") || blockId.isEmpty()) && placedBlockId != null) {
-            blockId = placedBlockId;
-        }
-
-        if (blockId == null || blockId.isEmpty() || blockId.equals("Empty")) {
-            if (placerUuid != null)
-                placedBlockManager.removeBlock(x, y, z);
-            return;
-        }
-
-        String normalizedBlockId = normalizeId(blockId);
-        String playerName = playerRef.getUsername();
-
-        if (placerUuid != null) {
-            placedBlockManager.removeBlock(x, y, z);
+        PlacedBlock placed = placedBlockManager.consume(world, x, y, z);
+        UUID placerUuid = placed != null ? placed.placer() : null;
+        String placedBlockId = placed != null ? placed.blockId() : null;
+
+        // Resolved through the block type asset, its id is only read the first time it is seen
+        RewardIndex rewards = configManager.getRewardIndex();
+        RewardIndex.Entry reward = rewards.resolve(RewardIndex.Action.BREAK, blockType, BlockType::getId);
+        if (reward == null && placedBlockId != null) {
+            // Fallback: If event says "Empty" or null, use the block recorded by
+            // PlacedBlockManager
+            String blockId = blockType != null ? blockType.getId() : null;
+            if (blockId == null || blockId.equals("Empty") || blockId.isEmpty())
+                reward = rewards.resolve(RewardIndex.Action.BREAK, placedBlockId);
         }
-
-        JobReward minerReward = configManager.getBlockReward(normalizedBlockId);
-        if (minerReward != null) {
-            jobManager.giveReward(playerUuid, playerName, JobType.MINER, minerReward, playerRef);
+        if (reward == null)
             return;
-        }
 
-        JobReward woodReward = configManager.getWoodReward(normalizedBlockId);
-        if (woodReward != null) {
-            jobManager.giveReward(playerUuid, playerName, JobType.LUMBERJACK, woodReward, playerRef);
+        // Only reward crops if placed by the player (cultivated)
+        if (reward.has(RewardIndex.Entry.CULTIVATED_ONLY) && !playerUuid.equals(placerUuid))
             return;
-        }
 
-        JobReward cropReward = configManager.getCropReward(normalizedBlockId);
-        if (cropReward != null) {
-            // Only reward if placed by the player (cultivated)
-            if (placerUuid != null && placerUuid.equals(playerUuid)) {
-                jobManager.giveReward(playerUuid, playerName, JobType.FARMER, cropReward, playerRef);
-            }
-        }
+        jobManager.giveReward(playerUuid, playerRef.getUsername(), reward.job(), reward.reward(), playerRef);
     }
 
     @Override
     public Query<EntityStore> getQuery() {
         return Archetype.empty();
     }
-
-    private String normalizeId(String id) {
-        if (id == null)
-            return "";
-        int colonIndex = id.indexOf(':');
-        if (colonIndex >= 0) {
-            return id.substring(colonIndex + 1).toLowerCase();
-        }
-        return id.toLowerCase();
-    }
 }
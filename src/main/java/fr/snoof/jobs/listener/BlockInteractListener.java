@@ -12,10 +12,9 @@ import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.Universe;
 import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import fr.snoof.jobs.config.ConfigManager;
+import fr.snoof.jobs.config.RewardIndex;
 import fr.snoof.jobs.manager.JobManager;
 import fr.snoof.jobs.manager.PlacedBlockManager;
-import fr.snoof.jobs.model.JobReward;
-import fr.snoof.jobs.model.JobType;
 
 import javax.annotation.Nonnull;
 import java.util.UUID;
@@ -48,69 +47,62 @@ public class BlockInteractListener extends EntityEventSystem<EntityStore, Intera
         if (playerRef == null)
             return;
 
-        String itemId = "unknown";
+        Object item = null;
         try {
-            // Use reflection to get item name/id from event.getItemStack()
+            // Use reflection to get the item from event.getItemStack()
             Object itemStack = event.getItemStack();
             if (itemStack != null) {
                 // itemStack.getItem()
                 java.lang.reflect.Method getItemMethod = itemStack.getClass().getMethod("getItem");
-                Object item = getItemMethod.invoke(itemStack);
+                item = getItemMethod.invoke(itemStack);
+            }
+        } catch (Exception ignored) {
+        }
 
-                if (item != null) {
-                    // Try getId() first
-                    try {
-                        java.lang.reflect.Method getIdMethod = item.getClass().getMethod("getId");
-                        Object idObj = getIdMethod.invoke(item);
-                        if (idObj != null) {
-                            itemId = idObj.toString();
-                        }
-                    } catch (NoSuchMethodException ignored) {
-                    }
+        // Check for Crop Reward, the item id is only looked up the first time this item is seen
+        RewardIndex.Entry reward = configManager.getRewardIndex().resolve(RewardIndex.Action.HARVEST, item,
+                BlockInteractListener::itemId);
+        if (reward != null) {
+            jobManager.giveReward(playerUuid, playerRef.getUsername(), reward.job(), reward.reward(), playerRef);
+        }
+    }
 
-                    // If still unknown, try getName() as fallback or if specifically requested
-                    if (itemId.equals("unknown")) {
-                        try {
-                            java.lang.reflect.Method getNameMethod = item.getClass().getMethod("getName");
-                            Object name = getNameMethod.invoke(item);
-                            if (name != null) {
-                                itemId = name.toString();
-                            }
-                        } catch (NoSuchMethodException ignored) {
-                        }
-                    }
+    private static String itemId(Object item) {
+        String itemId = "unknown";
+        try {
+            // Try getId() first
+            try {
+                java.lang.reflect.Method getIdMethod = item.getClass().getMethod("getId");
+                Object idObj = getIdMethod.invoke(item);
+                if (idObj != null) {
+                    itemId = idObj.toString();
+                }
+            } catch (NoSuchMethodException ignored) {
+            }
 
-                    // Fallback to toString() if mostly nothing worked
-                    if (itemId.equals("unknown")) {
-                        itemId = item.toString();
+            // If still unknown, try getName() as fallback or if specifically requested
+            if (itemId.equals("unknown")) {
+                try {
+                    java.lang.reflect.Method getNameMethod = item.getClass().getMethod("getName");
+                    Object name = getNameMethod.invoke(item);
+                    if (name != null) {
+                        itemId = name.toString();
                     }
+                } catch (NoSuchMethodException ignored) {
                 }
             }
-        } catch (Exception ignored) {
-        }
-
-        // Normalize
-        String normalizedId = normalizeId(itemId);
 
-        // Check for Crop Reward
-        JobReward cropReward = configManager.getCropReward(normalizedId);
-        if (cropReward != null) {
-            jobManager.giveReward(playerUuid, playerRef.getUsername(), JobType.FARMER, cropReward, playerRef);
+            // Fallback to toString() if mostly nothing worked
+            if (itemId.equals("unknown")) {
+                itemId = item.toString();
+            }
+        } catch (Exception ignored) {
         }
+        return itemId;
     }
 
     @Override
     public Query<EntityStore> getQuery() {
         return Archetype.empty();
     }
-
-    private String normalizeId(String id) {
-        if (id == null)
-            return "";
-        int colonIndex = id.indexOf(':');
-        if (colonIndex >= 0) {
-            return id.substring(colonIndex + 1).toLowerCase();
-        }
-        return id.toLowerCase();
-    }
 }
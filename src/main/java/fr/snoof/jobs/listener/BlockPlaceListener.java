@@ -9,6 +9,7 @@ import com.hypixel.hytale.component.system.EntityEventSystem;
 import com.hypixel.hytale.server.core.entity.UUIDComponent;
 import com.hypixel.hytale.server.core.event.events.ecs.PlaceBlockEvent;
 import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
+import fr.snoof.jobs.config.ConfigManager;
 import fr.snoof.jobs.manager.PlacedBlockManager;
 
 import javax.annotation.Nonnull;
@@ -16,10 +17,12 @@ import java.util.UUID;
 
 public class BlockPlaceListener extends EntityEventSystem<EntityStore, PlaceBlockEvent> {
 
+    private final ConfigManager configManager;
     private final PlacedBlockManager placedBlockManager;
 
-    public BlockPlaceListener(PlacedBlockManager placedBlockManager) {
+    public BlockPlaceListener(ConfigManager configManager, PlacedBlockManager placedBlockManager) {
         super(PlaceBlockEvent.class);
+        this.configManager = configManager;
         this.placedBlockManager = placedBlockManager;
     }
 
@@ -34,6 +37,7 @@ public class BlockPlaceListener extends EntityEventSystem<EntityStore, PlaceBloc
 
         UUID playerUuid = uuidComp.getUuid();
 
+        String world = store.getExternalData().getWorld().getName();
         int x = event.getTargetBlock().getX();
         int y = event.getTargetBlock().getY();
         int z = event.getTargetBlock().getZ();
@@ -92,7 +96,12 @@ public class BlockPlaceListener extends EntityEventSystem<EntityStore, PlaceBloc
 
         // System.out.println("[EcoJobs DEBUG] Placed Block at " + x + "," + y + "," + z
         // + " by " + playerUuid + " ID: " + blockId);
-        placedBlockManager.addBlock(x, y, z, playerUuid, blockId);
+
+        // Decorative blocks can never affect a reward, don't remember them
+        if (!configManager.isPlacedBlockTracked(blockId))
+            return;
+
+        placedBlockManager.addBlock(world, x, y, z, playerUuid, blockId);
     }
 
     @Override
@@ -12,9 +12,8 @@ import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.Universe;
 import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import fr.snoof.jobs.config.ConfigManager;
+import fr.snoof.jobs.config.RewardIndex;
 import fr.snoof.jobs.manager.JobManager;
-import fr.snoof.jobs.model.JobReward;
-import fr.snoof.jobs.model.JobType;
 
 import javax.annotation.Nonnull;
 import java.util.UUID;
@@ -44,29 +43,12 @@ public class CraftingListener extends EntityEventSystem<EntityStore, CraftRecipe
         if (playerRef == null)
             return;
 
-        String itemId = event.getCraftedRecipe().getId();
-        if (itemId == null || itemId.isEmpty())
-            return;
-
-        String normalizedId = normalizeId(itemId);
-        String playerName = playerRef.getUsername();
-        int amount = event.getQuantity();
-
-        JobReward craftReward = configManager.getCraftReward(normalizedId);
-        if (craftReward != null) {
-            JobReward scaledReward = new JobReward(
-                    craftReward.getXp() * amount,
-                    craftReward.getMoney() * amount);
-            jobManager.giveReward(playerUuid, playerName, JobType.BLACKSMITH, scaledReward, playerRef);
-            return;
-        }
-
-        JobReward furnitureReward = configManager.getFurnitureReward(normalizedId);
-        if (furnitureReward != null) {
-            JobReward scaledReward = new JobReward(
-                    furnitureReward.getXp() * amount,
-                    furnitureReward.getMoney() * amount);
-            jobManager.giveReward(playerUuid, playerName, JobType.LUMBERJACK, scaledReward, playerRef);
+        // Resolved through the recipe asset, its id is only read the first time it is seen
+        RewardIndex.Entry reward = configManager.getRewardIndex().resolve(RewardIndex.Action.CRAFT,
+                event.getCraftedRecipe(), recipe -> recipe.getId());
+        if (reward != null) {
+            jobManager.giveReward(playerUuid, playerRef.getUsername(), reward.job(),
+                    reward.scaled(event.getQuantity()), playerRef);
         }
     }
 
@@ -74,14 +56,4 @@ public class CraftingListener extends EntityEventSystem<EntityStore, CraftRecipe
     public Query<EntityStore> getQuery() {
         return Archetype.empty();
     }
-
-    private String normalizeId(String id) {
-        if (id == null)
-            return "";
-        int colonIndex = id.indexOf(':');
-        if (colonIndex >= 0) {
-            return id.substring(colonIndex + 1).toLowerCase();
-        }
-        return id.toLowerCase();
-    }
 }
@@ -13,6 +13,7 @@ import com.hypixel.hytale.server.core.modules.entity.damage.DeathComponent;
 import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import fr.snoof.jobs.config.ConfigManager;
+import fr.snoof.jobs.config.RewardIndex;
 import fr.snoof.jobs.manager.JobManager;
 import fr.snoof.jobs.model.JobReward;
 import fr.snoof.jobs.model.JobType;
@@ -79,17 +80,9 @@ public class EntityKillListener extends RefChangeSystem<EntityStore, DeathCompon
         if (entityType == null || entityType.isEmpty())
             return;
 
-        String normalizedType = normalizeId(entityType);
-
-        JobReward legendReward = configManager.getLegendMobReward(normalizedType);
-        if (legendReward != null) {
-            jobManager.giveReward(killerUuid, killerName, JobType.CHAMPION, legendReward, killerPlayerRef);
-            return;
-        }
-
-        JobReward mobReward = configManager.getMobReward(normalizedType);
-        if (mobReward != null) {
-            jobManager.giveReward(killerUuid, killerName, JobType.HUNTER, mobReward, killerPlayerRef);
+        RewardIndex.Entry reward = configManager.getRewardIndex().resolve(RewardIndex.Action.KILL, entityType);
+        if (reward != null) {
+            jobManager.giveReward(killerUuid, killerName, reward.job(), reward.reward(), killerPlayerRef);
         }
     }
 
@@ -113,14 +106,4 @@ public class EntityKillListener extends RefChangeSystem<EntityStore, DeathCompon
     public void onComponentRemoved(@Nonnull Ref<EntityStore> ref, @Nonnull DeathComponent component,
             @Nonnull Store<EntityStore> store, @Nonnull CommandBuffer<EntityStore> commandBuffer) {
     }
-
-    private String normalizeId(String id) {
-        if (id == null)
-            return "";
-        int colonIndex = id.indexOf(':');
-        if (colonIndex >= 0) {
-            return id.substring(colonIndex + 1).toLowerCase();
-        }
-        return id.toLowerCase();
-    }
 }
@@ -0,0 +1,160 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.model.JobPlayer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Puts a {@link PlayerArchive} behind another store. Profiles of players not seen
+ * for a while are moved to the archive by {@link #archiveInactive}, and go back to
+ * the active store as soon as they are loaded again. Leaderboards only cover the
+ * active store: {@link #forEachStanding} leaves archived players out, so startup
+ * never reads the archive, and they are ranked again once they come back.
+ */
+class ArchivingPlayerStore implements PlayerStore {
+    private static final int BATCH_SIZE = 500;
+
+    private final PlayerStore active;
+    private final PlayerArchive archive;
+    // Moves between the two stores, held for one promotion or one archived batch
+    private final Object moveLock = new Object();
+
+    ArchivingPlayerStore(PlayerStore active, Path archiveFolder) {
+        this.active = active;
+        this.archive = new PlayerArchive(archiveFolder);
+    }
+
+    @Override
+    public void open() throws IOException {
+        active.open();
+        archive.open();
+    }
+
+    @Override
+    public boolean isEmpty() throws IOException {
+        return active.isEmpty() && archive.size() == 0;
+    }
+
+    @Override
+    public Map<UUID, JobPlayer> loadAll() throws IOException {
+        Map<UUID, JobPlayer> loaded = new HashMap<>(archive.loadAll());
+        loaded.putAll(active.loadAll());
+        return loaded;
+    }
+
+    @Override
+    public JobPlayer load(UUID uuid) throws IOException {
+        JobPlayer player = active.load(uuid);
+        if (player != null || !archive.contains(uuid))
+            return player;
+        return promote(uuid);
+    }
+
+    private JobPlayer promote(UUID uuid) throws IOException {
+        synchronized (moveLock) {
+            // Another thread may have promoted it while this one waited
+            JobPlayer player = active.load(uuid);
+            if (player != null)
+                return player;
+            player = archive.load(uuid);
+            if (player == null)
+                return null;
+            active.saveBatch(List.of(player));
+            archive.remove(uuid);
+            return player;
+        }
+    }
+
+    @Override
+    public long saveBatch(Collection<JobPlayer> players) throws IOException {
+        return active.saveBatch(players);
+    }
+
+    @Override
+    public UUID findByName(String name) throws IOException {
+        UUID uuid = active.findByName(name);
+        return uuid != null ? uuid : archive.findByName(name);
+    }
+
+    @Override
+    public List<UUID> findInactive(long seenBefore) throws IOException {
+        return active.findInactive(seenBefore);
+    }
+
+    @Override
+    public void forEachStanding(Consumer<JobStanding> visitor) throws IOException {
+        active.forEachStanding(visitor);
+    }
+
+    @Override
+    public void delete(Collection<UUID> uuids) throws IOException {
+        active.delete(uuids);
+        for (UUID uuid : uuids) {
+            archive.remove(uuid);
+        }
+    }
+
+    /**
+     * Moves the profiles not seen since {@code seenBefore} to the archive. Batches
+     * are moved one at a time, so a promotion waits for one batch at most, and the
+     * archive is compacted afterwards without holding up promotions.
+     *
+     * @param inUse profiles to leave alone, e.g. those held in memory
+     * @return the number of archived profiles
+     */
+    int archiveInactive(long seenBefore, Predicate<UUID> inUse) throws IOException {
+        List<UUID> candidates = active.findInactive(seenBefore);
+        int archived = 0;
+        for (int start = 0; start < candidates.size(); start += BATCH_SIZE) {
+            archived += archiveBatch(candidates.subList(start, Math.min(start + BATCH_SIZE, candidates.size())),
+                    inUse);
+        }
+        archive.compactIfNeeded();
+        return archived;
+    }
+
+    private int archiveBatch(List<UUID> uuids, Predicate<UUID> inUse) throws IOException {
+        synchronized (moveLock) {
+            List<JobPlayer> batch = new ArrayList<>();
+            for (UUID uuid : uuids) {
+                if (inUse.test(uuid))
+                    continue;
+                JobPlayer player = active.load(uuid);
+                if (player != null)
+                    batch.add(player);
+            }
+            if (batch.isEmpty())
+                return 0;
+            // Durable in the archive before it leaves the active store
+            archive.append(batch);
+            List<UUID> moved = new ArrayList<>(batch.size());
+            for (JobPlayer player : batch) {
+                moved.add(player.getUuid());
+            }
+            active.delete(moved);
+            return batch.size();
+        }
+    }
+
+    int archivedCount() {
+        return archive.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            active.close();
+        } finally {
+            archive.close();
+        }
+    }
+}
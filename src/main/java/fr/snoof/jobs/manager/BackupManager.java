@@ -0,0 +1,290 @@
+package fr.snoof.jobs.manager;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.util.VarInts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Rotating backups of the player profiles. A full backup holds every profile, a
+ * delta only those saved since the previous backup; restoring one replays its
+ * full backup and every delta up to it. Both hold {@link PlayerCodec} records in
+ * a deflated stream, after a small uncompressed header so listing stays cheap.
+ * <p>
+ * Retention counts full backups; the oldest goes together with its deltas.
+ * Driven by {@link DataManager} on its I/O thread.
+ */
+public class BackupManager {
+    private static final int MAGIC = 0x454A424B; // "EJBK"
+    private static final int VERSION = 1;
+    private static final byte TYPE_FULL = 1;
+    private static final byte TYPE_DELTA = 2;
+
+    private final Path folder;
+    private final HytaleLogger logger;
+    private final int fullEvery;
+    private final int retention;
+    // Profiles saved since the last backup
+    private final Set<UUID> changed = ConcurrentHashMap.newKeySet();
+    // Forces a full backup first after a start or a restore, since the changes before are unknown
+    private int deltasSinceFull = -1;
+
+    /**
+     * @param fullEvery a full backup is taken after this many deltas, 0 = every backup is full
+     * @param retention full backups kept, with their deltas
+     */
+    BackupManager(Path folder, HytaleLogger logger, int fullEvery, int retention) {
+        this.folder = folder;
+        this.logger = logger;
+        this.fullEvery = fullEvery;
+        this.retention = Math.max(1, retention);
+    }
+
+    void recordSaved(Collection<JobPlayer> saved) {
+        for (JobPlayer player : saved) {
+            changed.add(player.getUuid());
+        }
+    }
+
+    /**
+     * @return false if the next backup would be an empty delta
+     */
+    boolean hasChanges() {
+        return deltasSinceFull < 0 || deltasSinceFull >= fullEvery || !changed.isEmpty();
+    }
+
+    /**
+     * Takes a full backup or a delta, whichever is due. The store must be up to date.
+     */
+    Backup backup(PlayerStore store) throws IOException {
+        boolean full = deltasSinceFull < 0 || deltasSinceFull >= fullEvery;
+        List<UUID> delta = full ? null : new ArrayList<>(changed);
+        changed.clear();
+        try {
+            Backup backup;
+            if (full) {
+                backup = write(TYPE_FULL, store.loadAll().values());
+                deltasSinceFull = 0;
+            } else {
+                List<JobPlayer> profiles = new ArrayList<>(delta.size());
+                for (UUID uuid : delta) {
+                    JobPlayer player = store.load(uuid);
+                    if (player != null)
+                        profiles.add(player);
+                }
+                backup = write(TYPE_DELTA, profiles);
+                deltasSinceFull++;
+            }
+            prune();
+            return backup;
+        } catch (IOException | RuntimeException e) {
+            if (delta != null)
+                changed.addAll(delta);
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a full backup of the given profiles, e.g. the current state before a restore.
+     */
+    Backup backupFull(Collection<JobPlayer> profiles) throws IOException {
+        Backup backup = write(TYPE_FULL, profiles);
+        changed.clear();
+        deltasSinceFull = 0;
+        prune();
+        return backup;
+    }
+
+    /**
+     * Reads the profiles as they were at the given backup: its full backup, then
+     * every delta up to it in order.
+     *
+     * @return the profiles, or null if there is no such backup
+     */
+    Map<UUID, JobPlayer> read(long id) throws IOException {
+        List<Backup> chain = new ArrayList<>();
+        for (Backup backup : list()) {
+            if (backup.id() > id)
+                break;
+            if (backup.full())
+                chain.clear();
+            chain.add(backup);
+        }
+        if (chain.isEmpty() || chain.get(chain.size() - 1).id() != id)
+            return null;
+        if (!chain.get(0).full())
+            throw new IOException("Full backup of backup " + id + " is missing");
+
+        Map<UUID, JobPlayer> profiles = new HashMap<>();
+        for (Backup backup : chain) {
+            readProfiles(file(backup.id(), backup.full()), profiles);
+        }
+        return profiles;
+    }
+
+    /**
+     * Must be called after the profiles were replaced by a restored backup.
+     */
+    void onRestored() {
+        changed.clear();
+        deltasSinceFull = -1;
+    }
+
+    /**
+     * @return the backups on disk, oldest first
+     */
+    public List<Backup> list() throws IOException {
+        List<Backup> backups = new ArrayList<>();
+        if (!Files.isDirectory(folder))
+            return backups;
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith("backup-") || !name.endsWith(".bak"))
+                    continue;
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                    if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                        continue;
+                    byte type = in.readByte();
+                    backups.add(new Backup(in.readLong(), type == TYPE_FULL, in.readLong(), in.readInt(),
+                            Files.size(file)));
+                } catch (EOFException e) {
+                    logger.at(Level.WARNING).log("Skipping truncated backup " + file);
+                }
+            }
+        }
+        backups.sort((a, b) -> Long.compare(a.id(), b.id()));
+        return backups;
+    }
+
+    // ========== Files ==========
+
+    private Backup write(byte type, Collection<JobPlayer> profiles) throws IOException {
+        Files.createDirectories(folder);
+        List<Backup> existing = list();
+        long id = existing.isEmpty() ? 1 : existing.get(existing.size() - 1).id() + 1;
+        long timestamp = System.currentTimeMillis();
+        Path target = file(id, type == TYPE_FULL);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        ByteBuffer length = ByteBuffer.allocate(VarInts.MAX_INT_BYTES);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                OutputStream raw = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+            DataOutputStream header = new DataOutputStream(raw);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeByte(type);
+            header.writeLong(id);
+            header.writeLong(timestamp);
+            header.writeInt(profiles.size());
+            header.flush();
+
+            DeflaterOutputStream out = new DeflaterOutputStream(raw, deflater, 64 * 1024);
+            for (JobPlayer player : profiles) {
+                byte[] record = PlayerCodec.encode(player);
+                length.clear();
+                VarInts.putVarInt(length, record.length);
+                out.write(length.array(), 0, length.position());
+                out.write(record);
+            }
+            out.write(0); // End of records
+            out.finish();
+            raw.flush();
+            // Forced before the rename, or a crash could leave a renamed but torn backup
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new Backup(id, type == TYPE_FULL, timestamp, profiles.size(), Files.size(target));
+    }
+
+    private void readProfiles(Path file, Map<UUID, JobPlayer> profiles) throws IOException {
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file))) {
+            // Header: magic, version, type, id, timestamp, count
+            raw.skipNBytes(4 + 4 + 1 + 8 + 8 + 4);
+            DataInputStream in = new DataInputStream(new InflaterInputStream(raw));
+            while (true) {
+                int length = readVarInt(in);
+                if (length == 0)
+                    return;
+                byte[] record = new byte[length];
+                in.readFully(record);
+                JobPlayer player;
+                try {
+                    player = PlayerCodec.decode(record);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupted backup " + file, e);
+                }
+                profiles.put(player.getUuid(), player);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated backup " + file, e);
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("Malformed backup record length");
+    }
+
+    // Drops the oldest full backups past the retention, with the deltas that follow them
+    private void prune() throws IOException {
+        List<Backup> backups = list();
+        long fulls = backups.stream().filter(Backup::full).count();
+        for (Backup backup : backups) {
+            if (backup.full()) {
+                if (fulls <= retention)
+                    return;
+                fulls--;
+            }
+            Files.deleteIfExists(file(backup.id(), backup.full()));
+        }
+    }
+
+    private Path file(long id, boolean full) {
+        return folder.resolve(String.format("backup-%06d-%s.bak", id, full ? "full" : "delta"));
+    }
+
+    /**
+     * @param size size of the file in bytes
+     */
+    public record Backup(long id, boolean full, long timestamp, int profiles, long size) {
+    }
+}
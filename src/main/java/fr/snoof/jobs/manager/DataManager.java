@@ -1,45 +1,82 @@
 package fr.snoof.jobs.manager;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobPlayerAdapter;
 
 import java.io.*;
-import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.hypixel.hytale.logger.HytaleLogger;
 import java.util.logging.Level;
 
 public class DataManager {
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    private static final Type PLAYER_MAP_TYPE = new TypeToken<Map<UUID, JobPlayer>>() {
-    }.getType();
+    private static final JobPlayerAdapter PLAYER_ADAPTER = new JobPlayerAdapter();
+    // Profiles of players.json written to the store at once while migrating
+    private static final int MIGRATION_BATCH = 500;
+    private static final int LOAD_RETRY_SECONDS = 30;
 
     private final Path dataFolder;
     private final HytaleLogger logger;
     private final JobManager jobManager;
+    private final ArchivingPlayerStore store;
+    private final boolean fileStorage;
+    private final ProgressionLog progressionLog;
+    private volatile BackupManager backups;
     private final ScheduledExecutorService scheduler;
+    // Serializes and writes the snapshots, one save at a time
+    private final ExecutorService io;
+    private final AtomicBoolean saveQueued = new AtomicBoolean();
     private boolean running;
+    // Saves wait for an opened store, changes stay dirty in memory meanwhile
+    private volatile boolean storeOpen;
 
-    public DataManager(Path dataFolder, HytaleLogger logger, JobManager jobManager) {
+    private volatile long lastSaveMillis;
+    private volatile long lastSaveDurationMillis;
+    private volatile long lastSaveBytes;
+    private volatile int lastSaveCount;
+
+    /**
+     * @param checkpointEvents progression events logged before a save is started early, 0 = only autosaves
+     */
+    public DataManager(Path dataFolder, HytaleLogger logger, JobManager jobManager, String storageType,
+            boolean prettyJson, int checkpointEvents) {
         this.dataFolder = dataFolder;
         this.logger = logger;
         this.jobManager = jobManager;
+        PlayerStore activeStore = createStore(storageType, prettyJson);
+        this.fileStorage = activeStore instanceof FilePlayerStore;
+        this.store = new ArchivingPlayerStore(activeStore, dataFolder.resolve("archive"));
+        this.progressionLog = new ProgressionLog(dataFolder.resolve("progress"), logger, this::save, checkpointEvents);
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.io = Executors.newSingleThreadExecutor();
     }
 
-    public void init(int saveIntervalSeconds) {
+    public void init(int saveIntervalSeconds, int archiveAfterDays) {
+        jobManager.setPlayerStore(store);
         load();
         running = true;
         scheduler.scheduleAtFixedRate(this::save, saveIntervalSeconds, saveIntervalSeconds, TimeUnit.SECONDS);
+        if (archiveAfterDays > 0) {
+            scheduler.scheduleAtFixedRate(() -> runOnIoThread(() -> archiveInactive(archiveAfterDays)),
+                    10, TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+        }
         logger.at(Level.INFO).log("DataManager initialized with auto-save every " + saveIntervalSeconds + "s");
     }
 
@@ -51,47 +88,441 @@ public class DataManager {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-        save();
+        saveNow();
+        io.shutdown();
+        try {
+            io.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        progressionLog.close();
+        try {
+            store.close();
+        } catch (IOException e) {
+            logger.at(Level.WARNING).withCause(e).log("Failed to close player storage");
+        }
         logger.at(Level.INFO).log("DataManager shutdown complete.");
     }
 
     public void load() {
         try {
-            Files.createDirectories(dataFolder);
-            loadPlayers();
+            store.open();
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to open player storage, nothing is saved until restart");
+            return;
+        }
+        storeOpen = true;
+        try {
+            migrateSingleFile();
+            importFileProfiles();
         } catch (IOException e) {
             logger.at(Level.SEVERE).withCause(e).log("Failed to load data");
         }
+        openProgressionLog();
+        loadJobIndexes();
+    }
+
+    // Rankings cover every profile, so they are built once from the stored standings and then kept up to date
+    private void loadJobIndexes() {
+        try {
+            jobManager.rebuildJobIndexes(store);
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to load job members");
+        }
     }
 
-    private void loadPlayers() throws IOException {
-        Path playersFile = dataFolder.resolve("players.json");
-        if (Files.exists(playersFile)) {
-            try (Reader reader = Files.newBufferedReader(playersFile)) {
-                Map<UUID, JobPlayer> loaded = GSON.fromJson(reader, PLAYER_MAP_TYPE);
-                if (loaded != null) {
-                    jobManager.loadPlayers(loaded);
-                    logger.at(Level.INFO).log("Loaded " + loaded.size() + " player profiles.");
+    // ========== Progression log ==========
+
+    /**
+     * Applies the events logged since the last save to the stored profiles, then
+     * starts logging. If that fails, the old events stay on disk untouched and
+     * nothing is logged until the next start.
+     */
+    private void openProgressionLog() {
+        try {
+            Map<UUID, JobPlayer> loaded = new HashMap<>();
+            Map<UUID, JobPlayer> replayed = new HashMap<>();
+            IOException[] failure = new IOException[1];
+            List<Long> generations = progressionLog.replay((sequence, uuid, type, xp, earnings, timestamp) -> {
+                if (failure[0] != null)
+                    return;
+                JobPlayer player = loaded.get(uuid);
+                if (player == null) {
+                    try {
+                        player = store.load(uuid);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        return;
+                    }
+                    // Created and lost before its first save, the name comes back on connect
+                    if (player == null)
+                        player = new JobPlayer(uuid, null);
+                    loaded.put(uuid, player);
                 }
+                // Already saved in the profile, the log outlived the save
+                if (sequence <= player.getLogSequence())
+                    return;
+                jobManager.applyProgress(player, type, xp, earnings, timestamp, null);
+                player.setLogSequence(sequence);
+                replayed.put(uuid, player);
+            });
+            if (failure[0] != null)
+                throw failure[0];
+            if (!replayed.isEmpty()) {
+                store.saveBatch(replayed.values());
+                logger.at(Level.INFO).log("Replayed progression of " + replayed.size() + " players.");
             }
-        } else {
-            logger.at(Level.INFO).log("No existing player data found, starting fresh.");
+            // The new generation carries the last sequence before the old ones go
+            progressionLog.open(generations);
+            jobManager.setProgressionLog(progressionLog);
+            if (!generations.isEmpty())
+                checkpoint(generations.get(generations.size() - 1));
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e)
+                    .log("Failed to replay progression log, progress is only kept by saves until restart");
         }
     }
 
-    public void save() {
+    // Every event of the generation is in profiles that are now written
+    private void checkpoint(long logGeneration) {
         try {
-            savePlayers();
+            progressionLog.commit();
+            progressionLog.deleteUpTo(logGeneration);
         } catch (IOException e) {
+            logger.at(Level.WARNING).withCause(e).log("Failed to truncate progression log");
+        }
+    }
+
+    // First start on a new backend: take over the per-player files
+    private void importFileProfiles() throws IOException {
+        if (fileStorage || !store.isEmpty())
+            return;
+        PlayerStore files = new FilePlayerStore(dataFolder.resolve("players"), logger, false, true);
+        Map<UUID, JobPlayer> profiles = files.loadAll();
+        if (profiles.isEmpty())
+            return;
+        store.saveBatch(profiles.values());
+        logger.at(Level.INFO).log("Imported " + profiles.size() + " player profiles from player files.");
+    }
+
+    // ========== Backups ==========
+
+    /**
+     * Enables backups, taken every {@code intervalMinutes} minutes if that is positive.
+     *
+     * @param fullEvery deltas between two full backups
+     * @param retention full backups kept, with their deltas
+     */
+    public void initBackups(int intervalMinutes, int fullEvery, int retention) {
+        backups = new BackupManager(dataFolder.resolve("backups"), logger, fullEvery, retention);
+        if (intervalMinutes > 0) {
+            scheduler.scheduleAtFixedRate(() -> runOnIoThread(this::backupQuietly),
+                    intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Saves, then takes a full backup or a delta on the I/O thread.
+     */
+    public CompletableFuture<BackupManager.Backup> backupNow() {
+        return callOnIoThread(() -> {
+            runSave();
+            return requireBackups().backup(store);
+        });
+    }
+
+    /**
+     * @return the backups on disk, oldest first
+     */
+    public List<BackupManager.Backup> listBackups() throws IOException {
+        return requireBackups().list();
+    }
+
+    /**
+     * Replaces every profile, in storage and in memory, by its state at the given
+     * backup. The current state is backed up first, so the restore can be undone.
+     *
+     * @return a future of the number of profiles restored, -1 if there is no such backup
+     */
+    public CompletableFuture<Integer> restoreBackup(long id) {
+        return callOnIoThread(() -> {
+            BackupManager manager = requireBackups();
+            Map<UUID, JobPlayer> restored = manager.read(id);
+            if (restored == null)
+                return -1;
+
+            runSave();
+            Map<UUID, JobPlayer> current = store.loadAll();
+            manager.backupFull(current.values());
+            List<UUID> removed = new ArrayList<>();
+            for (UUID uuid : current.keySet()) {
+                if (!restored.containsKey(uuid))
+                    removed.add(uuid);
+            }
+            store.delete(removed);
+            store.saveBatch(restored.values());
+
+            long logGeneration = jobManager.replaceProfiles(restored);
+            if (logGeneration >= 0)
+                checkpoint(logGeneration);
+            manager.onRestored();
+            logger.at(Level.INFO).log("Restored " + restored.size() + " player profiles from backup " + id + ".");
+            return restored.size();
+        });
+    }
+
+    private void backupQuietly() {
+        runSave();
+        BackupManager manager = requireBackups();
+        if (!manager.hasChanges())
+            return;
+        try {
+            BackupManager.Backup backup = manager.backup(store);
+            logger.at(Level.INFO).log("Player backup " + backup.id() + " written (" + backup.profiles()
+                    + " profiles, " + backup.size() + " bytes).");
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to back up player profiles");
+        }
+    }
+
+    private BackupManager requireBackups() {
+        BackupManager current = backups;
+        if (current == null)
+            throw new IllegalStateException("Backups are not initialized");
+        return current;
+    }
+
+    // ========== Archive ==========
+
+    /**
+     * Moves the profiles of players not seen for {@code days} days to the archive.
+     * Runs on the I/O thread, so it never overlaps a save.
+     */
+    private void archiveInactive(int days) {
+        long seenBefore = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        try {
+            // In-memory profiles may have changes not saved yet
+            int archived = store.archiveInactive(seenBefore, uuid -> jobManager.getPlayer(uuid) != null);
+            if (archived > 0)
+                logger.at(Level.INFO).log("Archived " + archived + " inactive player profiles.");
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to archive inactive profiles");
+        }
+    }
+
+    // ========== Connections ==========
+
+    // Both go through the I/O thread, so a quick reconnect cannot unpin after the new pin
+
+    public void onPlayerConnect(UUID uuid, String name) {
+        runOnIoThread(() -> {
+            try {
+                jobManager.pinPlayer(uuid, name, store.load(uuid));
+            } catch (IOException e) {
+                logger.at(Level.SEVERE).withCause(e).log("Failed to load profile of " + name + ", retrying every "
+                        + LOAD_RETRY_SECONDS + "s");
+                // Never pinned as a new profile, which would overwrite the stored one
+                if (jobManager.pinUnloadedPlayer(uuid, name))
+                    scheduleLoadRetry(uuid, name);
+            }
+        });
+    }
+
+    // Until the profile loads or the player leaves, a stand-in is offline and loaded on access
+    private void scheduleLoadRetry(UUID uuid, String name) {
+        try {
+            scheduler.schedule(() -> runOnIoThread(() -> {
+                if (!jobManager.isUnloaded(uuid) || !jobManager.getPlayers().containsKey(uuid))
+                    return;
+                try {
+                    jobManager.completeLoad(uuid, store.load(uuid));
+                    logger.at(Level.INFO).log("Loaded profile of " + name + " after retrying.");
+                } catch (IOException e) {
+                    logger.at(Level.WARNING).log("Still failing to load profile of " + name + ": " + e.getMessage());
+                    scheduleLoadRetry(uuid, name);
+                }
+            }), LOAD_RETRY_SECONDS, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    public void onPlayerDisconnect(UUID uuid) {
+        runOnIoThread(() -> jobManager.unpinPlayer(uuid));
+    }
+
+    private <T> CompletableFuture<T> callOnIoThread(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        runOnIoThread(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private void runOnIoThread(Runnable task) {
+        try {
+            io.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Moves the former single {@code players.json} into the store.
+     */
+    private void migrateSingleFile() throws IOException {
+        Path legacyFile = dataFolder.resolve("players.json");
+        if (!Files.exists(legacyFile))
+            return;
+
+        // Streamed in batches, so the whole map never sits in memory
+        int migrated = 0;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(legacyFile))) {
+            if (reader.peek() != JsonToken.NULL) {
+                List<JobPlayer> batch = new ArrayList<>(MIGRATION_BATCH);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    UUID uuid = UUID.fromString(reader.nextName());
+                    JobPlayer player = PLAYER_ADAPTER.read(reader);
+                    if (player == null)
+                        continue;
+                    if (player.getUuid() == null)
+                        player.setUuid(uuid);
+                    batch.add(player);
+                    if (batch.size() == MIGRATION_BATCH) {
+                        store.saveBatch(batch);
+                        migrated += batch.size();
+                        batch.clear();
+                    }
+                }
+                reader.endObject();
+                store.saveBatch(batch);
+                migrated += batch.size();
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Malformed " + legacyFile, e);
+        }
+        Files.move(legacyFile, legacyFile.resolveSibling("players.json.migrated"),
+                StandardCopyOption.REPLACE_EXISTING);
+        logger.at(Level.INFO).log("Migrated " + migrated + " player profiles from players.json.");
+    }
+
+    /**
+     * Queues a save on the I/O thread. Requests made while one is already queued
+     * are folded into it, since it will pick up every profile dirty by then.
+     */
+    public void save() {
+        if (!saveQueued.compareAndSet(false, true))
+            return;
+        try {
+            io.execute(this::runSave);
+        } catch (RejectedExecutionException e) {
+            saveQueued.set(false);
+        }
+    }
+
+    /**
+     * Saves and waits for the write to complete.
+     */
+    public void saveNow() {
+        try {
+            io.submit(this::runSave).get();
+        } catch (RejectedExecutionException e) {
+            runSave();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.at(Level.SEVERE).withCause(e.getCause()).log("Failed to save data");
+        }
+    }
+
+    private void runSave() {
+        saveQueued.set(false);
+        if (!storeOpen)
+            return;
+        long start = System.nanoTime();
+        JobManager.Records.DirtySnapshot dirty = jobManager.snapshotDirtyPlayers();
+        List<JobPlayer> snapshot = dirty.players();
+        if (snapshot.isEmpty())
+            return;
+
+        if (dirty.logGeneration() >= 0)
+            stampLogSequence(snapshot, dirty.logSequence());
+
+        long bytes = -1;
+        try {
+            bytes = store.saveBatch(snapshot);
+        } catch (IOException | RuntimeException e) {
             logger.at(Level.SEVERE).withCause(e).log("Failed to save data");
+            // The whole batch goes back for the next save, rewriting a saved profile is harmless
+            for (JobPlayer player : snapshot) {
+                jobManager.markDirty(player.getUuid());
+            }
+            return;
+        } finally {
+            jobManager.completeSave(snapshot);
         }
+        BackupManager currentBackups = backups;
+        if (currentBackups != null)
+            currentBackups.recordSaved(snapshot);
+        if (dirty.logGeneration() >= 0)
+            checkpoint(dirty.logGeneration());
+
+        lastSaveMillis = System.currentTimeMillis();
+        lastSaveDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastSaveBytes = bytes;
+        lastSaveCount = snapshot.size();
+    }
+
+    // A profile only claims events the log holds durably, a restart would hand out their sequences again otherwise
+    private void stampLogSequence(List<JobPlayer> snapshot, long logSequence) {
+        try {
+            progressionLog.commit();
+        } catch (IOException e) {
+            logger.at(Level.WARNING).withCause(e).log("Failed to commit progression log before saving");
+            return;
+        }
+        for (JobPlayer player : snapshot) {
+            player.setLogSequence(logSequence);
+        }
+    }
+
+    // ========== Statistics ==========
+
+    public long getLastSaveMillis() {
+        return lastSaveMillis;
+    }
+
+    public long getLastSaveDurationMillis() {
+        return lastSaveDurationMillis;
+    }
+
+    /**
+     * @return the bytes written by the last save, or -1 if the backend cannot tell
+     */
+    public long getLastSaveBytes() {
+        return lastSaveBytes;
+    }
+
+    public int getLastSaveCount() {
+        return lastSaveCount;
+    }
+
+    public PlayerStore getStore() {
+        return store;
     }
 
-    private void savePlayers() throws IOException {
-        Path playersFile = dataFolder.resolve("players.json");
-        Map<UUID, JobPlayer> players = jobManager.getAllPlayers();
-        try (Writer writer = Files.newBufferedWriter(playersFile)) {
-            GSON.toJson(players, writer);
+    private PlayerStore createStore(String type, boolean prettyJson) {
+        if ("sqlite".equalsIgnoreCase(type)) {
+            if (SqlitePlayerStore.isAvailable())
+                return new SqlitePlayerStore(dataFolder.resolve("players.db"));
+            logger.at(Level.WARNING).log("SQLite driver not found, falling back to JSON player storage.");
         }
+        return new FilePlayerStore(dataFolder.resolve("players"), logger, "binary".equalsIgnoreCase(type),
+                prettyJson);
     }
 }
@@ -0,0 +1,217 @@
+package fr.snoof.jobs.manager;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.hypixel.hytale.logger.HytaleLogger;
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobPlayerAdapter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * One file per player under {@code players/<xx>/<uuid>.<ext>}, bucketed by the
+ * first two hex digits of the UUID so no single folder holds every player. Files
+ * are either pretty-printed JSON or {@link PlayerCodec} binary; both are read
+ * whatever the configured format, and a profile written in one format replaces
+ * its file in the other. Names and last-seen times are kept in a {@link PlayerIndex},
+ * so queries never read profile files.
+ */
+class FilePlayerStore implements PlayerStore {
+    private static final String JSON = ".json";
+    private static final String BINARY = ".bin";
+
+    private final Path folder;
+    private final HytaleLogger logger;
+    private final String extension;
+    private final String otherExtension;
+    private final Gson gson;
+    private final PlayerIndex index;
+
+    FilePlayerStore(Path folder, HytaleLogger logger, boolean binary, boolean prettyJson) {
+        this.folder = folder;
+        this.logger = logger;
+        this.extension = binary ? BINARY : JSON;
+        this.otherExtension = binary ? JSON : BINARY;
+        GsonBuilder builder = new GsonBuilder().registerTypeAdapter(JobPlayer.class, new JobPlayerAdapter());
+        this.gson = prettyJson ? builder.setPrettyPrinting().create() : builder.create();
+        this.index = new PlayerIndex(folder.resolve("index.dat"));
+    }
+
+    @Override
+    public void open() throws IOException {
+        Files.createDirectories(folder);
+        if (!index.open()) {
+            // First start with an index, or a crash since the last clean shutdown
+            Map<UUID, JobPlayer> players = loadAll();
+            index.rebuild(players.values());
+            logger.at(Level.INFO).log("Rebuilt the player index from " + players.size() + " profiles.");
+        }
+    }
+
+    @Override
+    public boolean isEmpty() throws IOException {
+        if (!Files.isDirectory(folder))
+            return true;
+        try (Stream<Path> paths = Files.walk(folder, 2)) {
+            return paths.noneMatch(FilePlayerStore::isProfileFile);
+        }
+    }
+
+    @Override
+    public Map<UUID, JobPlayer> loadAll() throws IOException {
+        // Files are independent, parse them in parallel
+        List<Path> files = listFiles();
+        JobPlayer[] players = files.parallelStream().map(this::read).toArray(JobPlayer[]::new);
+        Map<UUID, JobPlayer> loaded = new HashMap<>();
+        for (int i = 0; i < players.length; i++) {
+            JobPlayer player = players[i];
+            Path file = files.get(i);
+            if (player == null || player.getUuid() == null)
+                continue;
+            // Both files only exist after a crash between writing one and deleting the other
+            if (file.getFileName().toString().endsWith(extension) || !loaded.containsKey(player.getUuid()))
+                loaded.put(player.getUuid(), player);
+        }
+        return loaded;
+    }
+
+    /**
+     * @throws IOException also if the file is unreadable, so the profile is never taken for a new one
+     */
+    @Override
+    public JobPlayer load(UUID uuid) throws IOException {
+        Path file = file(uuid, extension);
+        if (Files.exists(file))
+            return parse(file);
+        file = file(uuid, otherExtension);
+        return Files.exists(file) ? parse(file) : null;
+    }
+
+    @Override
+    public long saveBatch(Collection<JobPlayer> players) throws IOException {
+        long bytes = 0;
+        for (JobPlayer player : players) {
+            bytes += write(player);
+        }
+        index.put(players);
+        return bytes;
+    }
+
+    @Override
+    public UUID findByName(String name) {
+        return index.findByName(name);
+    }
+
+    @Override
+    public List<UUID> findInactive(long seenBefore) {
+        return index.findInactive(seenBefore);
+    }
+
+    @Override
+    public void forEachStanding(Consumer<JobStanding> visitor) {
+        index.forEachStanding(visitor);
+    }
+
+    @Override
+    public void delete(Collection<UUID> uuids) throws IOException {
+        for (UUID uuid : uuids) {
+            Files.deleteIfExists(file(uuid, extension));
+            Files.deleteIfExists(file(uuid, otherExtension));
+        }
+        index.remove(uuids);
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+
+    private List<Path> listFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(folder))
+            return files;
+        try (Stream<Path> paths = Files.walk(folder, 2)) {
+            paths.filter(FilePlayerStore::isProfileFile).forEach(files::add);
+        }
+        return files;
+    }
+
+    private static boolean isProfileFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(JSON) || name.endsWith(BINARY);
+    }
+
+    // Bulk reads skip a bad file, it stays on disk for a single load to report
+    private JobPlayer read(Path file) {
+        try {
+            return parse(file);
+        } catch (IOException e) {
+            logger.at(Level.WARNING).withCause(e).log("Skipping unreadable player file " + file);
+            return null;
+        }
+    }
+
+    private JobPlayer parse(Path file) throws IOException {
+        JobPlayer player;
+        if (file.getFileName().toString().endsWith(BINARY)) {
+            try {
+                player = PlayerCodec.decode(Files.readAllBytes(file));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unreadable player file " + file, e);
+            }
+        } else {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                player = gson.fromJson(reader, JobPlayer.class);
+            } catch (JsonParseException e) {
+                throw new IOException("Unreadable player file " + file, e);
+            }
+        }
+        if (player == null || player.getUuid() == null)
+            throw new IOException("Unreadable player file " + file);
+        return player;
+    }
+
+    // Temp file, fsync, then atomic rename: a crash leaves either the old or the new profile
+    private int write(JobPlayer player) throws IOException {
+        Path file = file(player.getUuid(), extension);
+        Files.createDirectories(file.getParent());
+        byte[] bytes = extension.equals(BINARY) ? PlayerCodec.encode(player)
+                : gson.toJson(player).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int size = buffer.remaining();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(file(player.getUuid(), otherExtension));
+        return size;
+    }
+
+    private Path file(UUID uuid, String fileExtension) {
+        String name = uuid.toString();
+        return folder.resolve(name.substring(0, 2)).resolve(name + fileExtension);
+    }
+}
@@ -1,7 +1,9 @@
 package fr.snoof.jobs.manager;
 
+import com.hypixel.hytale.logger.HytaleLogger;
 import com.hypixel.hytale.server.core.universe.PlayerRef;
 import fr.snoof.jobs.config.ConfigManager;
+import fr.snoof.jobs.config.XpCurve;
 import com.hypixel.hytale.server.core.util.NotificationUtil;
 import com.hypixel.hytale.server.core.Message;
 import com.hypixel.hytale.server.core.inventory.ItemStack;
@@ -18,18 +20,48 @@ import javax.annotation.Nonnull;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.logging.Level;
 
 public class JobManager {
+    // Online players, kept until they disconnect
     private final Map<UUID, JobPlayer> players = new ConcurrentHashMap<>();
+    // Offline players, least recently used first, guarded by cacheLock
+    private final LinkedHashMap<UUID, JobPlayer> offlinePlayers = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object cacheLock = new Object();
+    // Profiles changed since the last save, and those being written
+    private final Set<UUID> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> savingPlayers = ConcurrentHashMap.newKeySet();
+    // Stand-ins for profiles the store failed to load: never saved, logged nor ranked, so they
+    // cannot replace the stored profile, which is loaded again later
+    private final Set<UUID> unloadedPlayers = ConcurrentHashMap.newKeySet();
+    private volatile PlayerStore store;
+    private volatile ProgressionLog progressionLog;
+    // Progression holds the read lock while it mutates and logs, a snapshot the
+    // write lock while it rotates the log and copies, so each event is in exactly one of the two
+    private final ReadWriteLock progressLock = new ReentrantReadWriteLock();
+    // Members of each job, every profile included, loaded or not; also their ranking
+    private final Map<JobType, Leaderboard> leaderboards = new EnumMap<>(JobType.class);
+    private final Map<JobType, Set<UUID>> onlineMembers = new EnumMap<>(JobType.class);
+    // Held while checking the job limits and joining, so concurrent joins cannot both take the last place
+    private final Object joinLock = new Object();
     private final ConfigManager configManager;
+    private final HytaleLogger logger;
     private final List<Job> jobs;
 
-    public JobManager(ConfigManager configManager) {
+    public JobManager(ConfigManager configManager, HytaleLogger logger) {
         this.configManager = configManager;
+        this.logger = logger;
         this.jobs = new ArrayList<>();
         initJobs();
+        for (JobType type : JobType.values()) {
+            leaderboards.put(type, new Leaderboard());
+            onlineMembers.put(type, ConcurrentHashMap.newKeySet());
+        }
     }
 
     private void initJobs() {
@@ -52,26 +84,61 @@ public class JobManager {
                 .orElse(null);
     }
 
+    /**
+     * @return the number of players who joined the job, online or not
+     */
     public int getPlayerCountForJob(String jobId) {
         JobType type = JobType.fromString(jobId);
-        if (type == null)
-            return 0;
+        return type != null ? leaderboards.get(type).size() : 0;
+    }
 
-        return (int) players.values().stream()
-                .filter(p -> p.hasJoinedJob(type))
-                .count();
+    /**
+     * @return the online players who joined the job
+     */
+    public Set<UUID> getOnlineMembers(JobType type) {
+        return Collections.unmodifiableSet(onlineMembers.get(type));
     }
 
-    public boolean assignJob(PlayerRef playerRef, String jobId) {
+    public JoinResult assignJob(PlayerRef playerRef, String jobId) {
         JobType type = JobType.fromString(jobId);
         if (type == null)
-            return false;
+            return JoinResult.INVALID_JOB;
 
         JobPlayer player = getOrCreatePlayer(
                 playerRef.getUuid(),
                 playerRef.getUsername());
 
-        return player.joinJob(type);
+        ConfigManager.Config config = configManager.getConfig();
+        synchronized (joinLock) {
+            synchronized (player) {
+                if (player.hasJoinedJob(type))
+                    return JoinResult.ALREADY_JOINED;
+                if (config.maxJobs > 0 && player.getJoinedJobCount() >= config.maxJobs)
+                    return JoinResult.LIMIT_REACHED;
+                int capacity = configManager.getJobCapacity(type);
+                if (capacity > 0 && leaderboards.get(type).size() >= capacity)
+                    return JoinResult.JOB_FULL;
+                player.joinJob(type);
+                updateMembership(player, type);
+            }
+        }
+        markDirty(player.getUuid());
+        requestCheckpoint();
+        return JoinResult.JOINED;
+    }
+
+    /**
+     * @return the message telling the player why they could not join the job
+     */
+    public String getJoinFailureMessage(JoinResult result, String jobId) {
+        ConfigManager.Messages messages = configManager.getMessages();
+        JobType type = JobType.fromString(jobId);
+        return switch (result) {
+            case ALREADY_JOINED -> messages.jobAlreadyJoined;
+            case LIMIT_REACHED -> String.format(messages.jobLimitReached, configManager.getConfig().maxJobs);
+            case JOB_FULL -> String.format(messages.jobFull, type.getDisplayName(), configManager.getJobCapacity(type));
+            default -> String.format(messages.invalidJob, jobId);
+        };
     }
 
     public boolean removeJob(@Nonnull PlayerRef playerRef, @Nonnull String jobId) {
@@ -79,8 +146,17 @@ public class JobManager {
         if (type == null)
             return false;
 
-        JobPlayer player = getPlayers().get(playerRef.getUuid());
-        return player != null && player.leaveJob(type);
+        JobPlayer player = getPlayer(playerRef.getUuid());
+        if (player == null)
+            return false;
+        synchronized (player) {
+            if (!player.leaveJob(type))
+                return false;
+            updateMembership(player, type);
+        }
+        markDirty(player.getUuid());
+        requestCheckpoint();
+        return true;
     }
 
     public JobData getPlayerJobData(@Nonnull PlayerRef playerRef, @Nonnull String jobId) {
@@ -88,7 +164,7 @@ public class JobManager {
         if (type == null)
             return null;
 
-        JobPlayer player = getPlayers().get(playerRef.getUuid());
+        JobPlayer player = getPlayer(playerRef.getUuid());
         if (player == null || !player.hasJoinedJob(type))
             return null;
 
@@ -100,43 +176,399 @@ public class JobManager {
         if (type == null)
             return 0;
 
-        JobPlayer player = players.get(playerRef.getUuid());
+        JobPlayer player = getPlayer(playerRef.getUuid());
         return player != null ? player.getLevel(type) : 0;
     }
 
+    /**
+     * @return the profiles of online players
+     */
     public Map<UUID, JobPlayer> getPlayers() {
         return players;
     }
 
+    /**
+     * @return the profile if it is in memory, online or cached, without loading it
+     */
     public JobPlayer getPlayer(UUID uuid) {
-        return players.get(uuid);
+        JobPlayer player = players.get(uuid);
+        if (player != null)
+            return player;
+        synchronized (cacheLock) {
+            return offlinePlayers.get(uuid);
+        }
     }
 
+    /**
+     * Returns the profile from memory, then from the store, and creates it if the
+     * player was never saved. Profiles of players who are not online go to the
+     * offline cache.
+     * <p>
+     * If the store fails, a stand-in is returned instead; see {@link #isUnloaded}.
+     * An offline stand-in is loaded again on each call.
+     */
     public JobPlayer getOrCreatePlayer(UUID uuid, String name) {
-        return players.computeIfAbsent(uuid, k -> new JobPlayer(uuid, name));
+        return loadPlayer(uuid, name, false);
+    }
+
+    // With retain, the profile is marked dirty before it can be evicted, see retain()
+    private JobPlayer loadPlayer(UUID uuid, String name, boolean retain) {
+        JobPlayer player = retain ? retain(uuid) : getPlayer(uuid);
+        if (player != null && (!unloadedPlayers.contains(uuid) || players.get(uuid) == player))
+            return player;
+
+        JobPlayer loaded;
+        try {
+            loaded = loadProfile(uuid);
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to load profile " + uuid);
+            synchronized (cacheLock) {
+                player = getPlayer(uuid);
+                if (player == null) {
+                    player = new JobPlayer(uuid, name);
+                    unloadedPlayers.add(uuid);
+                    offlinePlayers.put(uuid, player);
+                    trimOfflineCache();
+                }
+                return player;
+            }
+        }
+        synchronized (cacheLock) {
+            // Someone else may have loaded it meanwhile, theirs wins
+            player = getPlayer(uuid);
+            if (player == null || unloadedPlayers.contains(uuid))
+                player = install(uuid, loaded, name);
+            if (retain)
+                markDirty(uuid);
+            trimOfflineCache();
+            return player;
+        }
+    }
+
+    /**
+     * Returns the profile in memory, or null. An offline profile is marked dirty
+     * first, so it stays cached until the next save; the caller holds the progress
+     * read lock, so that save cannot start before the caller is done with it. An
+     * offline stand-in is not returned, it should be loaded again.
+     */
+    private JobPlayer retain(UUID uuid) {
+        JobPlayer player = players.get(uuid);
+        if (player != null)
+            return player;
+        synchronized (cacheLock) {
+            player = offlinePlayers.get(uuid);
+            if (player == null || unloadedPlayers.contains(uuid))
+                return null;
+            markDirty(uuid);
+            return player;
+        }
+    }
+
+    /**
+     * Applies a change to the profile under its lock, loading the profile if needed,
+     * then marks it dirty. The progress read lock is held throughout, so the profile
+     * can neither be evicted nor saved halfway before the change is recorded.
+     */
+    private <T> T updatePlayer(UUID uuid, String name, Function<JobPlayer, T> change) {
+        progressLock.readLock().lock();
+        try {
+            JobPlayer player = loadPlayer(uuid, name, true);
+            T result;
+            synchronized (player) {
+                result = change.apply(player);
+            }
+            markDirty(uuid);
+            return result;
+        } finally {
+            progressLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether the profile in memory is a stand-in for one the store failed
+     *         to load. Changes to a stand-in are dropped when the profile loads.
+     */
+    public boolean isUnloaded(UUID uuid) {
+        return unloadedPlayers.contains(uuid);
+    }
+
+    // Puts the profile the store returned in place of the stand-in, if any, or makes the
+    // stand-in or a new profile the player's if they were never saved. The caller holds
+    // cacheLock and trims the offline cache once the profile is safe from eviction
+    private JobPlayer install(UUID uuid, JobPlayer loaded, String name) {
+        JobPlayer standIn = unloadedPlayers.remove(uuid) ? getPlayer(uuid) : null;
+        boolean created = loaded == null;
+        JobPlayer player = loaded;
+        if (created)
+            player = standIn != null ? standIn : new JobPlayer(uuid, name);
+
+        if (standIn != null && players.get(uuid) == standIn) {
+            players.put(uuid, player);
+            synchronized (player) {
+                String onlineName = standIn.getName();
+                if (onlineName != null && !onlineName.equals(player.getName())) {
+                    player.setName(onlineName);
+                    created = true;
+                }
+                player.updateLastSeen();
+                updateMemberships(player);
+            }
+        } else {
+            offlinePlayers.put(uuid, player);
+        }
+        // Marked once the profile is visible, so a concurrent save cannot miss it
+        if (created)
+            markDirty(uuid);
+        return player;
+    }
+
+    /**
+     * Looks up a profile by player name, online players first.
+     *
+     * @return the profile, or null if no such player was ever saved
+     */
+    public JobPlayer findPlayerByName(String name) {
+        for (JobPlayer player : players.values()) {
+            if (name.equalsIgnoreCase(player.getName()))
+                return player;
+        }
+        PlayerStore currentStore = store;
+        if (currentStore == null)
+            return null;
+        try {
+            UUID uuid = currentStore.findByName(name);
+            return uuid != null ? getOrCreatePlayer(uuid, name) : null;
+        } catch (IOException e) {
+            logger.at(Level.WARNING).withCause(e).log("Failed to look up player " + name);
+            return null;
+        }
+    }
+
+    private JobPlayer loadProfile(UUID uuid) throws IOException {
+        PlayerStore currentStore = store;
+        return currentStore != null ? currentStore.load(uuid) : null;
+    }
+
+    public void setPlayerStore(PlayerStore store) {
+        this.store = store;
+    }
+
+    void setProgressionLog(ProgressionLog progressionLog) {
+        this.progressionLog = progressionLog;
+    }
+
+    // Changes the progression log cannot replay must reach the store soon
+    private void requestCheckpoint() {
+        ProgressionLog log = progressionLog;
+        if (log != null)
+            log.requestCheckpoint();
+    }
+
+    // ========== Online pinning ==========
+
+    /**
+     * Keeps the profile in memory while the player is online. {@code loaded} is
+     * used only if the profile is not in memory already, since that copy is newer.
+     */
+    public JobPlayer pinPlayer(UUID uuid, String name, JobPlayer loaded) {
+        return pin(uuid, name, loaded, false);
+    }
+
+    /**
+     * Pins a stand-in for a connecting player whose profile the store failed to
+     * load, unless the profile is in memory already. {@link #completeLoad} swaps
+     * in the profile once it loads.
+     *
+     * @return whether the profile still has to be loaded
+     */
+    public boolean pinUnloadedPlayer(UUID uuid, String name) {
+        pin(uuid, name, null, true);
+        return unloadedPlayers.contains(uuid);
+    }
+
+    /**
+     * Replaces the stand-in of an online player by the profile the store finally
+     * returned, null if the player was never saved.
+     */
+    public void completeLoad(UUID uuid, JobPlayer loaded) {
+        synchronized (cacheLock) {
+            if (unloadedPlayers.contains(uuid) && players.containsKey(uuid))
+                install(uuid, loaded, null);
+        }
+    }
+
+    private JobPlayer pin(UUID uuid, String name, JobPlayer loaded, boolean loadFailed) {
+        JobPlayer player;
+        synchronized (cacheLock) {
+            player = players.get(uuid);
+            if (player == null) {
+                player = offlinePlayers.remove(uuid);
+                // An offline stand-in gives way to what the store returned
+                if (player != null && !loadFailed && unloadedPlayers.remove(uuid))
+                    player = loaded;
+            }
+            boolean created = player == null && loaded == null && !loadFailed;
+            if (player == null) {
+                player = loaded != null ? loaded : new JobPlayer(uuid, name);
+                if (loadFailed)
+                    unloadedPlayers.add(uuid);
+            }
+            players.put(uuid, player);
+            if (created)
+                markDirty(uuid);
+        }
+        synchronized (player) {
+            if (name != null && !name.equals(player.getName())) {
+                player.setName(name);
+                markDirty(uuid);
+            }
+            player.updateLastSeen();
+            updateMemberships(player);
+        }
+        return player;
+    }
+
+    /**
+     * Moves the profile of a disconnecting player to the offline cache.
+     */
+    public void unpinPlayer(UUID uuid) {
+        synchronized (cacheLock) {
+            JobPlayer player = players.remove(uuid);
+            if (player == null)
+                return;
+            for (Set<UUID> members : onlineMembers.values()) {
+                members.remove(uuid);
+            }
+            synchronized (player) {
+                player.updateLastSeen();
+            }
+            markDirty(uuid);
+            offlinePlayers.put(uuid, player);
+            trimOfflineCache();
+        }
     }
 
-    public void loadPlayers(Map<UUID, JobPlayer> loaded) {
-        players.clear();
-        players.putAll(loaded);
+    public int getCachedPlayerCount() {
+        synchronized (cacheLock) {
+            return offlinePlayers.size();
+        }
+    }
+
+    // Least recently used first; profiles with unsaved changes stay until written
+    private void trimOfflineCache() {
+        int excess = offlinePlayers.size() - Math.max(0, configManager.getConfig().offlineCacheSize);
+        for (Iterator<UUID> it = offlinePlayers.keySet().iterator(); excess > 0 && it.hasNext();) {
+            UUID uuid = it.next();
+            if (!dirtyPlayers.contains(uuid) && !savingPlayers.contains(uuid)) {
+                it.remove();
+                unloadedPlayers.remove(uuid);
+                excess--;
+            }
+        }
     }
 
-    public Map<UUID, JobPlayer> getAllPlayers() {
-        return new HashMap<>(players);
+    // ========== Dirty tracking ==========
+
+    public void markDirty(UUID uuid) {
+        if (!unloadedPlayers.contains(uuid))
+            dirtyPlayers.add(uuid);
+    }
+
+    /**
+     * Copies every profile changed since the last call, each under its own lock;
+     * mutations in this class hold the same lock. The profiles stay in memory
+     * until {@link #completeSave} is called with the copies; a failed save hands
+     * them back through {@link #markDirty} first.
+     * <p>
+     * The progression log generation ended here holds exactly the events already
+     * in the copies, so it can be deleted once they are written.
+     */
+    public Records.DirtySnapshot snapshotDirtyPlayers() {
+        List<JobPlayer> snapshot = new ArrayList<>();
+        long logGeneration = -1;
+        long logSequence = 0;
+        progressLock.writeLock().lock();
+        try {
+            synchronized (cacheLock) {
+                ProgressionLog log = progressionLog;
+                if (log != null && !dirtyPlayers.isEmpty()) {
+                    logGeneration = log.rotate();
+                    logSequence = log.lastSequence();
+                }
+                for (Iterator<UUID> it = dirtyPlayers.iterator(); it.hasNext();) {
+                    UUID uuid = it.next();
+                    it.remove();
+                    JobPlayer player = getPlayer(uuid);
+                    if (player == null)
+                        continue;
+                    savingPlayers.add(uuid);
+                    synchronized (player) {
+                        snapshot.add(player.copy());
+                    }
+                }
+            }
+        } finally {
+            progressLock.writeLock().unlock();
+        }
+        return new Records.DirtySnapshot(snapshot, logGeneration, logSequence);
+    }
+
+    public void completeSave(List<JobPlayer> snapshot) {
+        synchronized (cacheLock) {
+            for (JobPlayer player : snapshot) {
+                savingPlayers.remove(player.getUuid());
+            }
+            trimOfflineCache();
+        }
+    }
+
+    /**
+     * Replaces every profile in memory by its restored version, dropping changes
+     * not saved yet. Online players missing from {@code restored} start over.
+     *
+     * @return the progression log generation holding the dropped events, or -1
+     */
+    public long replaceProfiles(Map<UUID, JobPlayer> restored) {
+        progressLock.writeLock().lock();
+        try {
+            synchronized (cacheLock) {
+                ProgressionLog log = progressionLog;
+                long logGeneration = log != null ? log.rotate() : -1;
+                dirtyPlayers.clear();
+                offlinePlayers.clear();
+                unloadedPlayers.clear();
+                for (Map.Entry<UUID, JobPlayer> entry : players.entrySet()) {
+                    JobPlayer player = restored.get(entry.getKey());
+                    if (player == null) {
+                        player = new JobPlayer(entry.getKey(), entry.getValue().getName());
+                        markDirty(entry.getKey());
+                    }
+                    players.put(entry.getKey(), player.copy());
+                }
+                rebuildJobIndexes(restored.values());
+                return logGeneration;
+            }
+        } finally {
+            progressLock.writeLock().unlock();
+        }
+    }
+
+    public int getDirtyPlayerCount() {
+        return dirtyPlayers.size();
     }
 
     public int getLevel(UUID uuid, JobType type) {
-        JobPlayer player = players.get(uuid);
+        JobPlayer player = getPlayer(uuid);
         return player != null ? player.getLevel(type) : 1;
     }
 
     public long getExperience(UUID uuid, JobType type) {
-        JobPlayer player = players.get(uuid);
+        JobPlayer player = getPlayer(uuid);
         return player != null ? player.getExperience(type) : 0;
     }
 
     public long getXpRequired(int level) {
-        return (long) level * 100;
+        return configManager.getXpRequired(level);
     }
 
     public int getRequiredXPForNextLevel(int currentLevel) {
@@ -144,13 +576,7 @@ public class JobManager {
     }
 
     public boolean addXp(UUID uuid, String playerName, JobType type, long xp, PlayerRef playerRef) {
-        JobPlayer player = getOrCreatePlayer(uuid, playerName);
-        player.addExperience(type, xp);
-        player.getJobData(type).incrementActions();
-        player.getJobData(type).updateLastAction();
-        player.updateLastSeen();
-
-        return checkLevelUp(player, type, playerRef);
+        return progress(uuid, playerName, type, xp, 0, playerRef);
     }
 
     public void giveReward(UUID uuid, String playerName, JobType type, JobReward reward, PlayerRef playerRef) {
@@ -162,11 +588,11 @@ public class JobManager {
             return;
         }
 
-        boolean leveledUp = addXp(uuid, playerName, type, reward.getXp(), playerRef);
+        long earnings = reward.getMoney() > 0 ? (long) reward.getMoney() : 0;
+        boolean leveledUp = progress(uuid, playerName, type, reward.getXp(), earnings, playerRef);
 
         if (reward.getMoney() > 0) {
             EconomyHook.addBalance(uuid, reward.getMoney());
-            jobPlayer.getJobData(type).addEarnings((long) reward.getMoney());
         }
 
         if (playerRef != null && !leveledUp) {
@@ -186,6 +612,35 @@ public class JobManager {
         }
     }
 
+    // Applies and logs one progression event
+    private boolean progress(UUID uuid, String playerName, JobType type, long xp, long earnings,
+            PlayerRef playerRef) {
+        long now = System.currentTimeMillis();
+        return updatePlayer(uuid, playerName, player -> {
+            boolean leveledUp = applyProgress(player, type, xp, earnings, now, playerRef);
+            updateMembership(player, type);
+            ProgressionLog log = progressionLog;
+            if (log != null && !unloadedPlayers.contains(uuid))
+                log.append(uuid, type, xp, earnings, now);
+            return leveledUp;
+        });
+    }
+
+    /**
+     * Applies a progression event, live or replayed from the log. The caller holds
+     * the profile lock.
+     */
+    boolean applyProgress(JobPlayer player, JobType type, long xp, long earnings, long timestamp,
+            PlayerRef playerRef) {
+        JobData data = player.getJobData(type);
+        data.addExperience(xp);
+        data.addEarnings(earnings);
+        data.incrementActions();
+        data.setLastActionTime(Math.max(data.getLastActionTime(), timestamp));
+        player.setLastSeen(Math.max(player.getLastSeen(), timestamp));
+        return checkLevelUp(player, type, playerRef);
+    }
+
     public void sendNotification(PlayerRef playerRef, String title, String message, String iconItemName) {
         try {
             var packetHandler = playerRef.getPacketHandler();
@@ -204,82 +659,172 @@ public class JobManager {
         }
     }
 
+    // Finds the level matching the XP in one search of the curve, however many levels are gained
     private boolean checkLevelUp(JobPlayer player, JobType type, PlayerRef playerRef) {
+        XpCurve curve = configManager.getXpCurve();
         JobData data = player.getJobData(type);
-        int currentLevel = data.getLevel();
-        long currentXp = data.getExperience();
-        long required = getXpRequired(currentLevel);
-
-        int maxLevel = configManager.getConfig().maxLevel;
-        boolean leveledUp = false;
-
-        while (currentXp >= required && currentLevel < maxLevel) {
-            currentXp -= required;
-            currentLevel++;
-            required = getXpRequired(currentLevel);
-            leveledUp = true;
-        }
+        int currentLevel = Math.min(data.getLevel(), curve.getMaxLevel());
+        if (data.getExperience() < curve.getRequired(currentLevel) || currentLevel >= curve.getMaxLevel())
+            return false;
 
-        if (leveledUp) {
-            data.setLevel(currentLevel);
-            data.setExperience(currentXp);
+        long reached = curve.getCumulative(currentLevel) + data.getExperience();
+        if (reached < 0)
+            reached = Long.MAX_VALUE;
+        int newLevel = curve.getLevel(reached);
+        data.setLevel(newLevel);
+        data.setExperience(reached - curve.getCumulative(newLevel));
 
-            if (playerRef != null) {
-                playerRef.sendMessage(MessageUtil.success(String.format(
-                        configManager.getMessages().levelUp, currentLevel, type.getDisplayName())));
-            }
+        if (playerRef != null) {
+            playerRef.sendMessage(MessageUtil.success(String.format(
+                    configManager.getMessages().levelUp, newLevel, type.getDisplayName())));
         }
-
-        return leveledUp;
+        return true;
     }
 
     public void setLevel(UUID uuid, String name, JobType type, int level) {
-        JobPlayer player = getOrCreatePlayer(uuid, name);
-        player.setLevel(type, Math.max(1, Math.min(level, configManager.getConfig().maxLevel)));
-        player.setExperience(type, 0);
+        int maxLevel = configManager.getXpCurve().getMaxLevel();
+        updatePlayer(uuid, name, player -> {
+            player.setLevel(type, Math.max(1, Math.min(level, maxLevel)));
+            player.setExperience(type, 0);
+            updateMembership(player, type);
+            return null;
+        });
+        requestCheckpoint();
     }
 
     public void setExperience(UUID uuid, String name, JobType type, long xp) {
-        JobPlayer player = getOrCreatePlayer(uuid, name);
-        player.setExperience(type, Math.max(0, xp));
+        updatePlayer(uuid, name, player -> {
+            player.setExperience(type, Math.max(0, xp));
+            return null;
+        });
+        requestCheckpoint();
     }
 
     public void resetPlayer(UUID uuid, JobType type) {
-        JobPlayer player = players.get(uuid);
-        if (player != null) {
-            if (type != null) {
-                player.resetJob(type);
-            } else {
-                player.resetAllJobs();
+        progressLock.readLock().lock();
+        try {
+            JobPlayer player = retain(uuid);
+            if (player == null)
+                return;
+            synchronized (player) {
+                if (type != null) {
+                    player.resetJob(type);
+                } else {
+                    player.resetAllJobs();
+                }
+                updateMemberships(player);
             }
+            markDirty(uuid);
+        } finally {
+            progressLock.readLock().unlock();
         }
+        requestCheckpoint();
     }
 
     public List<Records.TopPlayerEntry> getTopPlayersForJob(String jobId, int limit) {
         JobType type = JobType.fromString(jobId);
         if (type == null)
             return Collections.emptyList();
+        return leaderboards.get(type).top(limit);
+    }
+
+    /**
+     * @return the 1-based rank of the player in the job, or 0 if they did not join it
+     */
+    public int getRank(UUID uuid, JobType type) {
+        return leaderboards.get(type).rank(uuid);
+    }
 
-        return players.values().stream()
-                .filter(p -> p.hasJoinedJob(type))
-                .sorted((a, b) -> {
-                    int levelCompare = Integer.compare(b.getLevel(type), a.getLevel(type));
-                    if (levelCompare != 0)
-                        return levelCompare;
-                    return Long.compare(b.getTotalExperience(type), a.getTotalExperience(type));
-                })
-                .limit(limit)
-                .map(p -> new Records.TopPlayerEntry(p.getName(), p.getLevel(type), p.getTotalExperience(type)))
-                .collect(Collectors.toList());
+    public int getRankedCount(JobType type) {
+        return leaderboards.get(type).size();
+    }
+
+    // ========== Members and leaderboards ==========
+
+    /**
+     * Indexes every given profile and every online one, replacing the current
+     * members and rankings. Profiles in memory are indexed from their in-memory
+     * version, which may be newer.
+     */
+    public void rebuildJobIndexes(Collection<JobPlayer> profiles) {
+        for (JobType type : JobType.values()) {
+            leaderboards.get(type).clear();
+            onlineMembers.get(type).clear();
+        }
+        for (JobPlayer profile : profiles) {
+            JobPlayer player = getPlayer(profile.getUuid());
+            if (player == null) {
+                updateMemberships(profile);
+                continue;
+            }
+            synchronized (player) {
+                updateMemberships(player);
+            }
+        }
+        for (JobPlayer player : players.values()) {
+            synchronized (player) {
+                updateMemberships(player);
+            }
+        }
+    }
+
+    /**
+     * Indexes the standings of every stored profile and every profile in memory,
+     * replacing the current members and rankings. Profiles in memory are indexed
+     * from their in-memory version, which may be newer.
+     */
+    public void rebuildJobIndexes(PlayerStore source) throws IOException {
+        for (JobType type : JobType.values()) {
+            leaderboards.get(type).clear();
+            onlineMembers.get(type).clear();
+        }
+        Map<UUID, JobPlayer> inMemory = new HashMap<>(players);
+        synchronized (cacheLock) {
+            inMemory.putAll(offlinePlayers);
+        }
+        source.forEachStanding(standing -> {
+            // A stand-in is never indexed, its stored standings are the ones to rank
+            if (!inMemory.containsKey(standing.uuid()) || unloadedPlayers.contains(standing.uuid()))
+                leaderboards.get(standing.job()).update(standing.uuid(), standing.name(), standing.level(),
+                        standing.totalExperience());
+        });
+        for (JobPlayer player : inMemory.values()) {
+            synchronized (player) {
+                updateMemberships(player);
+            }
+        }
+    }
+
+    // Callers hold the profile lock
+    private void updateMembership(JobPlayer player, JobType type) {
+        UUID uuid = player.getUuid();
+        // A stand-in would rank the player with a blank profile
+        if (unloadedPlayers.contains(uuid))
+            return;
+        Leaderboard leaderboard = leaderboards.get(type);
+        if (player.hasJoinedJob(type)) {
+            leaderboard.update(uuid, player.getName(), player.getLevel(type), player.getTotalExperience(type));
+            if (players.get(uuid) == player)
+                onlineMembers.get(type).add(uuid);
+        } else {
+            leaderboard.remove(uuid);
+            onlineMembers.get(type).remove(uuid);
+        }
+    }
+
+    private void updateMemberships(JobPlayer player) {
+        for (JobType type : JobType.values()) {
+            updateMembership(player, type);
+        }
     }
 
     public double getProgressPercent(UUID uuid, JobType type) {
-        JobPlayer player = players.get(uuid);
+        JobPlayer player = getPlayer(uuid);
         if (player == null)
             return 0;
 
         int level = player.getLevel(type);
-        if (level >= configManager.getConfig().maxLevel)
+        if (level >= configManager.getXpCurve().getMaxLevel())
             return 100.0;
 
         long xp = player.getExperience(type);
@@ -288,16 +833,33 @@ public class JobManager {
         return (xp * 100.0) / required;
     }
 
-    public void reload() {
-        try {
-            configManager.loadConfig();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Reloads config.json and messages.json off the calling thread. An invalid
+     * configuration is logged and the current one kept.
+     *
+     * @return completes with false if the new configuration was invalid
+     */
+    public CompletableFuture<Boolean> reload() {
+        return configManager.reloadAsync();
+    }
+
+    public enum JoinResult {
+        JOINED,
+        INVALID_JOB,
+        ALREADY_JOINED,
+        LIMIT_REACHED,
+        JOB_FULL
     }
 
     public static class Records {
         public record TopPlayerEntry(String playerName, int level, long totalXP) {
         }
+
+        /**
+         * @param logGeneration the progression log generation the copies cover, or -1
+         * @param logSequence   the sequence of the last logged event the copies include
+         */
+        public record DirtySnapshot(List<JobPlayer> players, long logGeneration, long logSequence) {
+        }
     }
 }
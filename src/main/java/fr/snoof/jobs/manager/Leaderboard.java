@@ -0,0 +1,190 @@
+package fr.snoof.jobs.manager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ranking of one job, best first by level then total XP, kept up to date as
+ * players progress. It is an indexable skip list: each link also stores how many
+ * entries it skips, so a player's rank is found in O(log n) on the way down, and
+ * the top N is a walk along the bottom level.
+ * <p>
+ * Thread-safe.
+ */
+class Leaderboard {
+    private static final int MAX_HEIGHT = 16;
+
+    private final Node head = new Node(null, null, 0, 0, MAX_HEIGHT);
+    private final Map<UUID, Node> nodes = new HashMap<>();
+    private int height = 1;
+    // Linked entries, one less than nodes.size() while an entry is moved
+    private int length;
+
+    /**
+     * Adds the player or moves them to their new place.
+     */
+    synchronized void update(UUID uuid, String name, int level, long totalExperience) {
+        Node node = nodes.get(uuid);
+        if (node != null) {
+            node.name = name;
+            if (node.level == level && node.totalExperience == totalExperience)
+                return;
+            unlink(node);
+        }
+        node = new Node(uuid, name, level, totalExperience, randomHeight());
+        link(node);
+        nodes.put(uuid, node);
+    }
+
+    synchronized void remove(UUID uuid) {
+        Node node = nodes.remove(uuid);
+        if (node != null)
+            unlink(node);
+    }
+
+    synchronized void clear() {
+        nodes.clear();
+        for (int i = 0; i < MAX_HEIGHT; i++) {
+            head.next[i] = null;
+            head.span[i] = 0;
+        }
+        height = 1;
+        length = 0;
+    }
+
+    synchronized int size() {
+        return nodes.size();
+    }
+
+    synchronized List<JobManager.Records.TopPlayerEntry> top(int limit) {
+        List<JobManager.Records.TopPlayerEntry> entries = new ArrayList<>(Math.min(limit, nodes.size()));
+        for (Node x = head.next[0]; x != null && entries.size() < limit; x = x.next[0]) {
+            entries.add(new JobManager.Records.TopPlayerEntry(x.name, x.level, x.totalExperience));
+        }
+        return entries;
+    }
+
+    /**
+     * @return the 1-based rank of the player, or 0 if not ranked
+     */
+    synchronized int rank(UUID uuid) {
+        Node target = nodes.get(uuid);
+        if (target == null)
+            return 0;
+        int rank = 0;
+        Node x = head;
+        for (int i = height - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], target) <= 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            if (x == target)
+                return rank;
+        }
+        return 0;
+    }
+
+    // ========== Skip list ==========
+
+    private void link(Node node) {
+        Node[] update = new Node[MAX_HEIGHT];
+        int[] rank = new int[MAX_HEIGHT];
+        Node x = head;
+        for (int i = height - 1; i >= 0; i--) {
+            rank[i] = i == height - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && compare(x.next[i], node) < 0) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int nodeHeight = node.next.length;
+        if (nodeHeight > height) {
+            for (int i = height; i < nodeHeight; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = length;
+            }
+            height = nodeHeight;
+        }
+
+        for (int i = 0; i < nodeHeight; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeHeight; i < height; i++) {
+            update[i].span[i]++;
+        }
+        length++;
+    }
+
+    private void unlink(Node node) {
+        Node[] update = new Node[MAX_HEIGHT];
+        Node x = head;
+        for (int i = height - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], node) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        for (int i = 0; i < height; i++) {
+            if (update[i].next[i] == node) {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (height > 1 && head.next[height - 1] == null) {
+            height--;
+        }
+        length--;
+    }
+
+    private static int randomHeight() {
+        // Each level up with probability 1/4, two random bits per level
+        int bits = ThreadLocalRandom.current().nextInt();
+        int nodeHeight = 1;
+        while (nodeHeight < MAX_HEIGHT && (bits & 3) == 0) {
+            nodeHeight++;
+            bits >>>= 2;
+        }
+        return nodeHeight;
+    }
+
+    // Best first; the UUID breaks ties so every entry has its own place
+    private static int compare(Node a, Node b) {
+        if (a.level != b.level)
+            return Integer.compare(b.level, a.level);
+        if (a.totalExperience != b.totalExperience)
+            return Long.compare(b.totalExperience, a.totalExperience);
+        return a.uuid.compareTo(b.uuid);
+    }
+
+    private static final class Node {
+        final UUID uuid;
+        String name;
+        final int level;
+        final long totalExperience;
+        final Node[] next;
+        // Entries skipped by each link, the target included
+        final int[] span;
+
+        Node(UUID uuid, String name, int level, long totalExperience, int height) {
+            this.uuid = uuid;
+            this.name = name;
+            this.level = level;
+            this.totalExperience = totalExperience;
+            this.next = new Node[height];
+            this.span = new int[height];
+        }
+    }
+}
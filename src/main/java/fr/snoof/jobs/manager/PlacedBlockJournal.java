@@ -0,0 +1,424 @@
+package fr.snoof.jobs.manager;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Append-only write-ahead log for {@link PlacedBlockManager}.
+ * <p>
+ * Mutations are fixed-size records referring to palette ids. New palette entries
+ * go to a separate append-only {@code palette.dat}, which is always forced to
+ * disk before the journal records that use them. Appends only copy bytes into
+ * memory; a background thread group-commits them every second. Journals are
+ * split into generations so a checkpoint can drop everything before it.
+ */
+class PlacedBlockJournal {
+    static final byte OP_ADD = 1;
+    static final byte OP_REMOVE = 2;
+
+    static final byte PALETTE_WORLD = 1;
+    static final byte PALETTE_PLACER = 2;
+    static final byte PALETTE_BLOCK = 3;
+
+    // op, world id, packed position, placer id, block id, placement hour
+    static final int RECORD_SIZE = 1 + 4 + 8 + 4 + 4 + 4;
+
+    private static final int JOURNAL_MAGIC = 0x454A504A; // "EJPJ"
+    private static final int PALETTE_MAGIC = 0x454A5050; // "EJPP"
+    private static final int JOURNAL_VERSION = 1;
+    private static final int PALETTE_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int COMMIT_INTERVAL_MILLIS = 1000;
+
+    private final Path folder;
+    private final HytaleLogger logger;
+    private final ScheduledExecutorService writer;
+
+    // Guards the pending buffers, held only for memory copies
+    private final Object bufferLock = new Object();
+    private ByteBuffer pendingRecords = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    private ByteArrayOutputStream pendingPaletteBytes = new ByteArrayOutputStream();
+    private DataOutputStream pendingPalette = new DataOutputStream(pendingPaletteBytes);
+    // Position in pendingRecords where the current generation ends, or -1
+    private int rotationBoundary = -1;
+
+    // Guards the channels, held during disk I/O
+    private final Object ioLock = new Object();
+    private FileChannel journalChannel;
+    private FileChannel paletteChannel;
+    private volatile long generation;
+    private long validPaletteLength;
+
+    PlacedBlockJournal(Path folder, HytaleLogger logger) {
+        this.folder = folder;
+        this.logger = logger;
+        this.writer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    // ========== Recovery ==========
+
+    /**
+     * Reads every palette entry in id order. A torn entry at the end of the file,
+     * left by a crash mid-append, is ignored and cut off by {@link #open}.
+     */
+    void readPalette(PaletteVisitor visitor) throws IOException {
+        Path file = folder.resolve("palette.dat");
+        if (!Files.exists(file))
+            return;
+        byte[] bytes = Files.readAllBytes(file);
+        ByteArrayInputStream raw = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(raw);
+        if (readHeader(in, PALETTE_MAGIC) != PALETTE_VERSION)
+            throw new IOException("Unsupported palette file " + file);
+
+        validPaletteLength = HEADER_SIZE;
+        while (raw.available() > 0) {
+            byte type;
+            String value;
+            try {
+                type = in.readByte();
+                value = in.readBoolean() ? in.readUTF() : null;
+            } catch (EOFException e) {
+                return;
+            }
+            visitor.accept(type, value);
+            validPaletteLength = bytes.length - raw.available();
+        }
+    }
+
+    /**
+     * Replays every journal generation in order.
+     *
+     * @return the journal generations found on disk
+     */
+    List<Long> replay(RecordVisitor visitor) throws IOException {
+        List<Long> generations = listGenerations();
+        for (long gen : generations) {
+            Path file = journalFile(gen);
+            try (InputStream raw = new BufferedInputStream(Files.newInputStream(file))) {
+                DataInputStream in = new DataInputStream(raw);
+                if (readHeader(in, JOURNAL_MAGIC) != JOURNAL_VERSION) {
+                    logger.at(Level.WARNING).log("Skipping unreadable placed blocks journal " + file);
+                    continue;
+                }
+                byte[] record = new byte[RECORD_SIZE];
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (raw.readNBytes(record, 0, RECORD_SIZE) == RECORD_SIZE) {
+                    buffer.clear();
+                    byte op = buffer.get();
+                    if (op != OP_ADD && op != OP_REMOVE)
+                        break; // Zero-filled or torn tail
+                    visitor.accept(op, buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt(),
+                            buffer.getInt());
+                }
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Opens the palette for appends and starts a journal generation after every existing one.
+     */
+    void open(List<Long> existingGenerations) throws IOException {
+        Files.createDirectories(folder);
+        synchronized (ioLock) {
+            Path paletteFile = folder.resolve("palette.dat");
+            paletteChannel = FileChannel.open(paletteFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (validPaletteLength < HEADER_SIZE) {
+                paletteChannel.truncate(0);
+                writeFully(paletteChannel, header(PALETTE_MAGIC, PALETTE_VERSION));
+                paletteChannel.force(false);
+            } else if (paletteChannel.size() > validPaletteLength) {
+                paletteChannel.truncate(validPaletteLength);
+            }
+            paletteChannel.position(paletteChannel.size());
+
+            generation = existingGenerations.isEmpty() ? 1 : existingGenerations.get(existingGenerations.size() - 1) + 1;
+            journalChannel = openGeneration(generation);
+        }
+        writer.scheduleWithFixedDelay(this::commitQuietly, COMMIT_INTERVAL_MILLIS, COMMIT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // ========== Appends (memory only) ==========
+
+    void appendAdd(int world, long position, int placer, int block, int hour) {
+        append(OP_ADD, world, position, placer, block, hour);
+    }
+
+    void appendRemove(int world, long position) {
+        append(OP_REMOVE, world, position, 0, 0, 0);
+    }
+
+    void appendPalette(byte type, String value) {
+        synchronized (bufferLock) {
+            try {
+                pendingPalette.writeByte(type);
+                pendingPalette.writeBoolean(value != null);
+                if (value != null) {
+                    pendingPalette.writeUTF(value);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // In-memory stream, cannot happen
+            }
+        }
+    }
+
+    private void append(byte op, int world, long position, int placer, int block, int hour) {
+        synchronized (bufferLock) {
+            if (pendingRecords.remaining() < RECORD_SIZE) {
+                ByteBuffer larger = ByteBuffer.allocate(pendingRecords.capacity() * 2);
+                pendingRecords.flip();
+                larger.put(pendingRecords);
+                pendingRecords = larger;
+            }
+            pendingRecords.put(op).putInt(world).putLong(position).putInt(placer).putInt(block).putInt(hour);
+        }
+    }
+
+    // ========== Commit and checkpoint ==========
+
+    /**
+     * Ends the current generation. Everything appended before this call belongs to
+     * the returned generation, everything after to the next one. Memory only; the
+     * switch happens on the next {@link #commit()}.
+     */
+    long rotate() {
+        synchronized (bufferLock) {
+            rotationBoundary = pendingRecords.position();
+            return generation;
+        }
+    }
+
+    /**
+     * Writes and forces everything appended so far. If a write fails, what was not
+     * made durable is cut off the files and queued again, in front of anything
+     * appended meanwhile, for the next commit.
+     */
+    void commit() throws IOException {
+        synchronized (ioLock) {
+            if (paletteChannel == null)
+                return;
+
+            byte[] palette;
+            ByteBuffer records;
+            int boundary;
+            synchronized (bufferLock) {
+                palette = pendingPaletteBytes.toByteArray();
+                pendingPaletteBytes = new ByteArrayOutputStream();
+                pendingPalette = new DataOutputStream(pendingPaletteBytes);
+
+                pendingRecords.flip();
+                records = ByteBuffer.allocate(pendingRecords.remaining());
+                records.put(pendingRecords).flip();
+                pendingRecords.clear();
+
+                boundary = rotationBoundary;
+                rotationBoundary = -1;
+            }
+
+            try {
+                // Palette entries must be durable before any record that references them
+                if (palette.length > 0) {
+                    writeDurably(paletteChannel, ByteBuffer.wrap(palette));
+                    palette = new byte[0];
+                }
+
+                if (boundary >= 0) {
+                    writeDurably(journalChannel, records.duplicate().limit(boundary));
+                    records.position(boundary);
+                    // The next generation is open before this one is left, a failure keeps the current one
+                    FileChannel previous = journalChannel;
+                    journalChannel = openGeneration(generation + 1);
+                    generation++;
+                    boundary = -1;
+                    previous.close();
+                }
+
+                if (records.hasRemaining()) {
+                    writeDurably(journalChannel, records);
+                }
+            } catch (IOException | RuntimeException e) {
+                requeue(palette, records, boundary);
+                throw e;
+            }
+        }
+    }
+
+    // Puts back what a failed commit did not write, before anything appended since
+    private void requeue(byte[] palette, ByteBuffer records, int boundary) {
+        synchronized (bufferLock) {
+            if (palette.length > 0) {
+                byte[] appended = pendingPaletteBytes.toByteArray();
+                pendingPaletteBytes = new ByteArrayOutputStream(palette.length + appended.length);
+                pendingPaletteBytes.writeBytes(palette);
+                pendingPaletteBytes.writeBytes(appended);
+                pendingPalette = new DataOutputStream(pendingPaletteBytes);
+            }
+
+            int failed = records.remaining();
+            if (failed == 0 && boundary < 0)
+                return;
+            // A rotation since then belongs to the same, not yet switched, generation
+            if (rotationBoundary >= 0) {
+                rotationBoundary += failed;
+            } else if (boundary >= 0) {
+                rotationBoundary = boundary - records.position();
+            }
+            pendingRecords.flip();
+            ByteBuffer merged = ByteBuffer.allocate(
+                    Math.max(pendingRecords.capacity(), failed + pendingRecords.remaining() + RECORD_SIZE * 1024));
+            merged.put(records).put(pendingRecords);
+            pendingRecords = merged;
+        }
+    }
+
+    /**
+     * Deletes every journal generation up to and including the given one.
+     */
+    void deleteUpTo(long lastGeneration) throws IOException {
+        for (long gen : listGenerations()) {
+            if (gen <= lastGeneration) {
+                Files.deleteIfExists(journalFile(gen));
+            }
+        }
+    }
+
+    void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commitQuietly();
+        synchronized (ioLock) {
+            try {
+                if (journalChannel != null)
+                    journalChannel.close();
+                if (paletteChannel != null)
+                    paletteChannel.close();
+            } catch (IOException e) {
+                logger.at(Level.WARNING).withCause(e).log("Failed to close placed blocks journal.");
+            }
+            journalChannel = null;
+            paletteChannel = null;
+        }
+    }
+
+    private void commitQuietly() {
+        try {
+            commit();
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to commit placed blocks journal.");
+        }
+    }
+
+    // ========== Files ==========
+
+    // A generation not opened yet holds nothing valid, a leftover of a failed attempt is overwritten
+    private FileChannel openGeneration(long gen) throws IOException {
+        FileChannel channel = FileChannel.open(journalFile(gen), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeFully(channel, header(JOURNAL_MAGIC, JOURNAL_VERSION));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private List<Long> listGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        if (!Files.isDirectory(folder))
+            return generations;
+        try (Stream<Path> files = Files.list(folder)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.startsWith("journal.") && name.endsWith(".log")) {
+                    try {
+                        generations.add(Long.parseLong(name.substring(8, name.length() - 4)));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            });
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path journalFile(long gen) {
+        return folder.resolve("journal." + gen + ".log");
+    }
+
+    private static ByteBuffer header(int magic, int version) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(magic).putInt(version).flip();
+    }
+
+    /**
+     * @return the format version, or -1 if the header is missing or not the expected one
+     */
+    private static int readHeader(DataInputStream in, int magic) throws IOException {
+        try {
+            return in.readInt() == magic ? in.readInt() : -1;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    // Writes and forces, or cuts the file back to where it was so a retry does not follow a torn write
+    private static void writeDurably(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long start = channel.position();
+        int from = buffer.position();
+        try {
+            writeFully(channel, buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            buffer.position(from);
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @FunctionalInterface
+    interface PaletteVisitor {
+        void accept(byte type, String value);
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void accept(byte op, int world, long position, int placer, int block, int hour);
+    }
+}
@@ -0,0 +1,155 @@
+package fr.snoof.jobs.manager;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import fr.snoof.jobs.util.IdPalette;
+import fr.snoof.jobs.util.LongLongHashMap;
+import fr.snoof.jobs.util.LongObjectHashMap;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * One-time conversion of the original single {@code placed_blocks.json} into binary
+ * {@link PlacedBlockSnapshot}s. The file maps {@code "x,y,z"} to
+ * {@code "UUID:BlockID"} (or just {@code "UUID"} for the oldest entries).
+ */
+final class PlacedBlockJsonConverter {
+    private static final Gson GSON = new Gson();
+    private static final Type MAP_TYPE = new TypeToken<Map<String, String>>() {
+    }.getType();
+
+    private PlacedBlockJsonConverter() {
+    }
+
+    /**
+     * Splits the single-file format into region snapshots under {@code worldFolder}.
+     *
+     * @return the number of converted blocks
+     */
+    static int convertLegacyFile(Path legacyFile, String world, Path worldFolder, int regionShift)
+            throws IOException {
+        Map<String, String> data = read(legacyFile);
+        if (data == null)
+            return 0;
+
+        Batch batch = new Batch(world);
+        LongObjectHashMap<LongLongHashMap> regions = new LongObjectHashMap<>();
+        int count = 0;
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            int[] coords = parseLocation(entry.getKey());
+            if (coords == null)
+                continue;
+            int regionX = coords[0] >> regionShift;
+            int regionZ = coords[2] >> regionShift;
+            long regionKey = ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+            LongLongHashMap blocks = regions.get(regionKey);
+            if (blocks == null) {
+                blocks = batch.read(worldFolder.resolve(PlacedBlockSnapshot.fileName(regionX, regionZ)));
+                regions.put(regionKey, blocks);
+            }
+            if (batch.add(blocks, entry.getKey(), entry.getValue()))
+                count++;
+        }
+
+        IOException[] failure = new IOException[1];
+        regions.forEach((regionKey, blocks) -> {
+            if (failure[0] != null)
+                return;
+            Path target = worldFolder.resolve(
+                    PlacedBlockSnapshot.fileName((int) (regionKey >> 32), (int) regionKey));
+            try {
+                batch.write(target, blocks);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null)
+            throw failure[0];
+        return count;
+    }
+
+    private static Map<String, String> read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return GSON.fromJson(reader, MAP_TYPE);
+        }
+    }
+
+    private static int[] parseLocation(String location) {
+        if (location == null)
+            return null;
+        String[] coords = location.split(",");
+        if (coords.length != 3)
+            return null;
+        try {
+            return new int[] { Integer.parseInt(coords[0]), Integer.parseInt(coords[1]),
+                    Integer.parseInt(coords[2]) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Palettes local to one conversion run; the snapshots carry their own dictionaries.
+     */
+    private static final class Batch {
+        private final String world;
+        private final IdPalette<UUID> placers = new IdPalette<>();
+        private final IdPalette<String> blockIds = new IdPalette<>();
+        // JSON entries carry no placement time, they count as placed now
+        private final int hour = PlacedBlockRegion.currentHour();
+
+        // Existing snapshot entries come first so a re-run after a crash merges instead of overwriting
+        LongLongHashMap read(Path snapshotFile) throws IOException {
+            LongLongHashMap blocks = new LongLongHashMap();
+            if (!Files.exists(snapshotFile))
+                return blocks;
+            PlacedBlockSnapshot snapshot = PlacedBlockSnapshot.open(snapshotFile);
+            try {
+                for (int i = 0; i < snapshot.size(); i++) {
+                    long value = snapshot.valueAt(i);
+                    int placer = placers.idOf(snapshot.placers()[PlacedBlockRegion.placerId(value)]);
+                    int block = blockIds.idOf(snapshot.blocks()[PlacedBlockRegion.blockId(value)]);
+                    blocks.put(snapshot.keyAt(i),
+                            PlacedBlockRegion.encode(placer, block, PlacedBlockRegion.hour(value)));
+                }
+            } finally {
+                snapshot.close();
+            }
+            return blocks;
+        }
+
+        Batch(String world) {
+            this.world = world;
+        }
+
+        boolean add(LongLongHashMap blocks, String location, String data) {
+            int[] coords = parseLocation(location);
+            if (coords == null || data == null)
+                return false;
+            try {
+                int separator = data.indexOf(':');
+                UUID placer = UUID.fromString(separator < 0 ? data : data.substring(0, separator));
+                String blockId = separator < 0 ? null : data.substring(separator + 1);
+                blocks.put(PlacedBlockManager.pack(coords[0], coords[1], coords[2]),
+                        PlacedBlockRegion.encode(placers.idOf(placer), blockIds.idOf(blockId), hour));
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        void write(Path target, LongLongHashMap blocks) throws IOException {
+            if (blocks.isEmpty()) {
+                Files.deleteIfExists(target);
+            } else {
+                PlacedBlockSnapshot.write(target, world, blocks, placers::get, blockIds::get);
+            }
+        }
+    }
+}
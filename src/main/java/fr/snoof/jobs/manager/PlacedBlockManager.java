@@ -1,97 +1,933 @@
 package fr.snoof.jobs.manager;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import com.hypixel.hytale.logger.HytaleLogger;
+import fr.snoof.jobs.config.ConfigManager;
+import fr.snoof.jobs.model.PlacedBlock;
+import fr.snoof.jobs.util.CountingBloomFilter;
+import fr.snoof.jobs.util.IdPalette;
+import fr.snoof.jobs.util.LongLongHashMap;
+import fr.snoof.jobs.util.LongObjectHashMap;
+import fr.snoof.jobs.util.TimingWheel;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
-import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
+/**
+ * Tracks blocks placed by players, sharded by world and region. Each region
+ * (16x16 chunks) lives in its own binary {@link PlacedBlockSnapshot} under
+ * {@code placed_blocks/<world>/}; it is mapped the first time one of its chunks is
+ * touched and flushed and evicted once it has been idle for a while.
+ * <p>
+ * Every mutation is also appended to a {@link PlacedBlockJournal}, so region files
+ * only need rewriting at checkpoints; the journal is replayed on top of them at load.
+ * <p>
+ * Records expire after a time to live that depends on the block's reward category.
+ * Expired records are ignored by lookups right away, and removed in bounded batches
+ * by a sweeper driven by a timing wheel of regions, keyed by their next expiry.
+ * <p>
+ * A {@link PlacedBlockPlacerIndex} counts each placer's blocks per region. It is
+ * built from the snapshot headers at load and kept up to date by every mutation,
+ * so per-player counts, quotas and purges never scan unrelated regions.
+ * <p>
+ * Lookups first go through {@link #mightBePlaced}: a position in a region without
+ * tracked blocks, or rejected by the region's Bloom filter, is answered without
+ * mapping a file or probing an index.
+ */
 public class PlacedBlockManager {
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    // CHANGED: We now store Strings (data) instead of just UUID
-    private static final Type MAP_TYPE = new TypeToken<Map<String, String>>() {
-    }.getType();
+    static final int CHUNK_SHIFT = 5;
+    static final int REGION_SHIFT = 9;
+    private static final long REGION_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int EVICTION_INTERVAL_SECONDS = 30;
+    private static final long SWEEP_TICK_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int SWEEP_WHEEL_SLOTS = 256;
+    // Records removed per sweep tick, so a mass expiry is spread over several ticks
+    private static final int SWEEP_BATCH = 4096;
+    // Worlds did not exist in the single-file format, everything went to the default world
+    private static final String LEGACY_WORLD = "default";
 
     private final Path dataFolder;
+    private final Path regionFolder;
     private final HytaleLogger logger;
-    // Map<LocationKey, "UUID:BlockID">
-    private final Map<String, String> placedBlocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final PlacedBlockJournal journal;
+    private final ConfigManager configManager;
 
-    public PlacedBlockManager(Path dataFolder, HytaleLogger logger) {
+    // World -> region key -> region, all guarded by this
+    private final Map<String, LongObjectHashMap<PlacedBlockRegion>> worlds = new HashMap<>();
+    // Palette ids are persisted through the journal and must never be reordered
+    private final IdPalette<String> worldIds = new IdPalette<>();
+    private final IdPalette<UUID> placers = new IdPalette<>();
+    private final IdPalette<String> blockIds = new IdPalette<>();
+    private final PlacedBlockPlacerIndex placerIndex = new PlacedBlockPlacerIndex();
+
+    // Regions by next expiry hour, and regions due for a sweep
+    private final TimingWheel<PlacedBlockRegion> sweepWheel = new TimingWheel<>(SWEEP_TICK_MILLIS,
+            SWEEP_WHEEL_SLOTS, System.currentTimeMillis());
+    private final ArrayDeque<PlacedBlockRegion> sweepQueue = new ArrayDeque<>();
+    // Time to live in hours by block palette id, -1 if not resolved yet; reset when the config is reloaded
+    private boolean paletteFullLogged;
+    private int[] ttlByBlock = new int[0];
+    private ConfigManager.Config ttlConfig;
+
+    public PlacedBlockManager(Path dataFolder, HytaleLogger logger, ConfigManager configManager) {
         this.dataFolder = dataFolder;
+        this.regionFolder = dataFolder.resolve("placed_blocks");
         this.logger = logger;
+        this.configManager = configManager;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.journal = new PlacedBlockJournal(regionFolder, logger);
+    }
+
+    public void init(int checkpointIntervalSeconds) {
+        load();
+        scheduler.scheduleAtFixedRate(this::evictIdleRegions, EVICTION_INTERVAL_SECONDS,
+                EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::save, checkpointIntervalSeconds, checkpointIntervalSeconds,
+                TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::sweepExpired, SWEEP_TICK_MILLIS, SWEEP_TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+        logger.at(Level.INFO).log("PlacedBlockManager initialized with checkpoints every "
+                + checkpointIntervalSeconds + "s");
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        save();
+        journal.close();
     }
 
     public void load() {
-        Path file = dataFolder.resolve("placed_blocks.json");
-        if (Files.exists(file)) {
-            try (Reader reader = Files.newBufferedReader(file)) {
-                Map<String, String> loaded = GSON.fromJson(reader, MAP_TYPE);
-                if (loaded != null) {
-                    placedBlocks.putAll(loaded);
-                    logger.at(Level.INFO).log("Loaded " + loaded.size() + " placed blocks.");
-                }
-            } catch (IOException e) {
-                logger.at(Level.SEVERE).withCause(e).log("Failed to load placed blocks.");
+        try {
+            Files.createDirectories(regionFolder);
+            convertJsonFiles();
+
+            journal.readPalette(this::restorePaletteEntry);
+            indexRegionFiles();
+            int[] replayed = new int[1];
+            List<Long> generations = journal.replay((op, world, position, placer, block, hour) -> {
+                if (replayRecord(op, world, position, placer, block, hour))
+                    replayed[0]++;
+            });
+            journal.open(generations);
+            if (replayed[0] > 0) {
+                logger.at(Level.INFO).log("Replayed " + replayed[0] + " placed block journal records.");
             }
+            save();
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to load placed blocks.");
         }
     }
 
+    /**
+     * Checkpoint: flushes every dirty resident region, then drops the journal
+     * generations those files now cover. Regions stay resident.
+     */
     public void save() {
-        Path file = dataFolder.resolve("placed_blocks.json");
-        try (Writer writer = Files.newBufferedWriter(file)) {
-            GSON.toJson(placedBlocks, writer);
+        try {
+            long lastGeneration;
+            synchronized (this) {
+                lastGeneration = journal.rotate();
+            }
+            journal.commit();
+
+            boolean complete = true;
+            for (PlacedBlockRegion region : residentRegions()) {
+                complete &= flush(region);
+            }
+            // A failed region write keeps the journal so nothing is lost
+            if (complete) {
+                journal.deleteUpTo(lastGeneration);
+            }
         } catch (IOException e) {
-            logger.at(Level.SEVERE).withCause(e).log("Failed to save placed blocks.");
+            logger.at(Level.SEVERE).withCause(e).log("Failed to checkpoint placed blocks.");
         }
     }
 
-    public void addBlock(int x, int y, int z, UUID playerUuid, String blockId) {
-        String key = getLocationKey(x, y, z);
-        placedBlocks.put(key, playerUuid.toString() + ":" + blockId);
+    /**
+     * @return false if the block was not tracked because the player reached the quota
+     *         or a palette is full
+     */
+    public boolean addBlock(String world, int x, int y, int z, UUID playerUuid, String blockId) {
+        long key = pack(x, y, z);
+        while (true) {
+            PlacedBlockRegion region = acquireRegion(world, x >> REGION_SHIFT, z >> REGION_SHIFT);
+            synchronized (this) {
+                if (region.evicted)
+                    continue;
+                int placerId = internPlacer(playerUuid);
+                if (placerId < 0)
+                    return false;
+                int quota = configManager.getConfig().maxTrackedBlocksPerPlayer;
+                if (quota > 0 && placerIndex.total(placerId) >= quota)
+                    return false;
+                int blockPaletteId = internBlock(blockId);
+                if (blockPaletteId < 0)
+                    return false;
+                int hour = PlacedBlockRegion.currentHour();
+                putEntry(region, key, PlacedBlockRegion.encode(placerId, blockPaletteId, hour));
+                region.markDirty();
+                journal.appendAdd(region.worldId, key, placerId, blockPaletteId, hour);
+                scheduleExpiry(region, blockPaletteId, hour);
+                return true;
+            }
+        }
+    }
+
+    public void removeBlock(String world, int x, int y, int z) {
+        consume(world, x, y, z);
+    }
+
+    /**
+     * Looks up and removes the block at the given position in one probe.
+     *
+     * @return the placer and block id, or null if the block was not placed by a player
+     */
+    public PlacedBlock consume(String world, int x, int y, int z) {
+        long key = pack(x, y, z);
+        if (!mightBePlaced(world, x, z, key))
+            return null;
+        while (true) {
+            PlacedBlockRegion region = acquireRegion(world, x >> REGION_SHIFT, z >> REGION_SHIFT);
+            synchronized (this) {
+                if (region.evicted)
+                    continue;
+                long value = removeEntry(region, key);
+                if (value == LongLongHashMap.NO_VALUE)
+                    return null;
+                region.markDirty();
+                journal.appendRemove(region.worldId, key);
+                if (isExpired(value, PlacedBlockRegion.currentHour()))
+                    return null;
+                return new PlacedBlock(placers.get(PlacedBlockRegion.placerId(value)),
+                        blockIds.get(PlacedBlockRegion.blockId(value)));
+            }
+        }
     }
 
-    public void removeBlock(int x, int y, int z) {
-        placedBlocks.remove(getLocationKey(x, y, z));
+    public boolean isPlacedByPlayer(String world, int x, int y, int z) {
+        return lookup(world, x, y, z) != LongLongHashMap.NO_VALUE;
     }
 
-    public boolean isPlacedByPlayer(int x, int y, int z) {
-        return placedBlocks.containsKey(getLocationKey(x, y, z));
+    public UUID getPlacer(String world, int x, int y, int z) {
+        long value = lookup(world, x, y, z);
+        if (value == LongLongHashMap.NO_VALUE)
+            return null;
+        synchronized (this) {
+            return placers.get(PlacedBlockRegion.placerId(value));
+        }
     }
 
-    public UUID getPlacer(int x, int y, int z) {
-        String data = placedBlocks.get(getLocationKey(x, y, z));
-        if (data == null)
+    public String getPlacedBlockId(String world, int x, int y, int z) {
+        long value = lookup(world, x, y, z);
+        if (value == LongLongHashMap.NO_VALUE)
             return null;
+        synchronized (this) {
+            return blockIds.get(PlacedBlockRegion.blockId(value));
+        }
+    }
+
+    /**
+     * Counts the tracked blocks inside the box (inclusive bounds, any corner order).
+     * Only regions that exist are visited, and within them only the overlapping chunks.
+     */
+    public int countRegion(String world, int x1, int y1, int z1, int x2, int y2, int z2) {
+        int[] count = new int[1];
+        forEachRegionInBox(world, x1, y1, z1, x2, y2, z2, (region, box) -> {
+            int hour = PlacedBlockRegion.currentHour();
+            region.forEachInBox(box[0], box[1], box[2], box[3], box[4], box[5], (key, value) -> {
+                if (!isExpired(value, hour))
+                    count[0]++;
+            });
+        });
+        return count[0];
+    }
+
+    /**
+     * Forgets every tracked block inside the box (inclusive bounds, any corner order),
+     * e.g. after an explosion or an arena reset.
+     *
+     * @return the number of removed records
+     */
+    public int removeRegion(String world, int x1, int y1, int z1, int x2, int y2, int z2) {
+        int[] count = new int[1];
+        forEachRegionInBox(world, x1, y1, z1, x2, y2, z2, (region, box) -> {
+            LongStream.Builder keys = LongStream.builder();
+            region.forEachInBox(box[0], box[1], box[2], box[3], box[4], box[5], (key, value) -> keys.add(key));
+            long[] removed = keys.build().toArray();
+            for (long key : removed) {
+                removeEntry(region, key);
+                journal.appendRemove(region.worldId, key);
+            }
+            if (removed.length > 0)
+                region.markDirty();
+            count[0] += removed.length;
+        });
+        return count[0];
+    }
+
+    /**
+     * Number of blocks tracked for the player, in every world. Constant time.
+     */
+    public synchronized int getPlacedCount(UUID placer) {
+        int placerId = placers.find(placer);
+        return placerId >= 0 ? placerIndex.total(placerId) : 0;
+    }
+
+    /**
+     * Number of regions holding blocks tracked for the player.
+     */
+    public synchronized int getPlacedRegionCount(UUID placer) {
+        int placerId = placers.find(placer);
+        return placerId >= 0 ? placerIndex.regions(placerId).length : 0;
+    }
+
+    /**
+     * Forgets every block tracked for the player, e.g. a banned griefer. Only the
+     * regions the player built in are visited.
+     *
+     * @return the number of removed records
+     */
+    public int removeByPlacer(UUID placer) {
+        int placerId;
+        long[] regionRefs;
+        synchronized (this) {
+            placerId = placers.find(placer);
+            if (placerId < 0)
+                return 0;
+            regionRefs = placerIndex.regions(placerId);
+        }
+
+        int count = 0;
+        for (long regionRef : regionRefs) {
+            String world;
+            synchronized (this) {
+                world = worldIds.get(PlacedBlockPlacerIndex.worldId(regionRef));
+            }
+            int regionX = PlacedBlockPlacerIndex.regionX(regionRef);
+            int regionZ = PlacedBlockPlacerIndex.regionZ(regionRef);
+            while (true) {
+                PlacedBlockRegion region = acquireRegion(world, regionX, regionZ);
+                synchronized (this) {
+                    if (region.evicted)
+                        continue;
+                    LongStream.Builder keys = LongStream.builder();
+                    region.forEach((key, value) -> {
+                        if (PlacedBlockRegion.placerId(value) == placerId)
+                            keys.add(key);
+                    });
+                    long[] removed = keys.build().toArray();
+                    for (long key : removed) {
+                        removeEntry(region, key);
+                        journal.appendRemove(region.worldId, key);
+                    }
+                    if (removed.length > 0)
+                        region.markDirty();
+                    count += removed.length;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number of placed blocks in resident regions, mapped or on the heap.
+     */
+    public synchronized int residentSize() {
+        int[] total = new int[1];
+        worlds.values().forEach(regions -> regions.forEach((key, region) -> total[0] += region.size()));
+        return total[0];
+    }
+
+    // ========== Region residency ==========
+
+    private long lookup(String world, int x, int y, int z) {
+        long key = pack(x, y, z);
+        if (!mightBePlaced(world, x, z, key))
+            return LongLongHashMap.NO_VALUE;
+        while (true) {
+            PlacedBlockRegion region = acquireRegion(world, x >> REGION_SHIFT, z >> REGION_SHIFT);
+            synchronized (this) {
+                if (region.evicted)
+                    continue;
+                long value = region.get(key);
+                if (value != LongLongHashMap.NO_VALUE && isExpired(value, PlacedBlockRegion.currentHour()))
+                    return LongLongHashMap.NO_VALUE;
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Fast negative path, without allocating: false if the position is definitely
+     * not tracked. Regions that hold no tracked block are never loaded for this.
+     */
+    private synchronized boolean mightBePlaced(String world, int x, int z, long key) {
+        int worldId = worldIds.find(world);
+        if (worldId < 0)
+            return false;
+        int regionX = x >> REGION_SHIFT;
+        int regionZ = z >> REGION_SHIFT;
+        if (placerIndex.regionTotal(PlacedBlockPlacerIndex.regionRef(worldId, regionX, regionZ)) == 0)
+            return false;
+        PlacedBlockRegion region = resident(world, regionX, regionZ);
+        return region == null || region.mightContain(key);
+    }
+
+    /**
+     * Returns the resident region, mapping its snapshot first if necessary. The
+     * file is opened without holding the lock, so a slow disk only stalls the
+     * calling world.
+     */
+    private PlacedBlockRegion acquireRegion(String world, int regionX, int regionZ) {
+        synchronized (this) {
+            PlacedBlockRegion region = resident(world, regionX, regionZ);
+            if (region != null) {
+                region.lastAccess = System.currentTimeMillis();
+                return region;
+            }
+        }
+
+        PlacedBlockSnapshot snapshot = openSnapshot(world, regionX, regionZ);
+        CountingBloomFilter filter = snapshot != null ? PlacedBlockRegion.buildFilter(snapshot) : null;
+
+        synchronized (this) {
+            PlacedBlockRegion region = resident(world, regionX, regionZ);
+            if (region != null) {
+                // Another thread won the race
+                if (snapshot != null)
+                    snapshot.close();
+            } else {
+                int worldId = internWorld(world);
+                if (snapshot == null) {
+                    region = new PlacedBlockRegion(world, worldId, regionX, regionZ);
+                } else {
+                    // Snapshot dictionaries -> palette ids
+                    int[] snapshotPlacers = new int[snapshot.placers().length];
+                    int[] snapshotBlocks = new int[snapshot.blocks().length];
+                    boolean mapped = true;
+                    for (int i = 0; i < snapshotPlacers.length; i++) {
+                        snapshotPlacers[i] = internPlacer(snapshot.placers()[i]);
+                        mapped &= snapshotPlacers[i] >= 0;
+                    }
+                    for (int i = 0; i < snapshotBlocks.length; i++) {
+                        snapshotBlocks[i] = internBlock(snapshot.blocks()[i]);
+                        mapped &= snapshotBlocks[i] >= 0;
+                    }
+                    // Loading it without its ids would let the next flush overwrite the file
+                    if (!mapped) {
+                        snapshot.close();
+                        throw new IllegalStateException("Placed blocks palette full, cannot load region "
+                                + regionX + "," + regionZ + " of " + world);
+                    }
+                    region = new PlacedBlockRegion(world, worldId, regionX, regionZ, snapshot, filter,
+                            snapshotPlacers, snapshotBlocks);
+                    // The header only knows the oldest placement, the sweep then finds the exact next expiry
+                    int shortestTtl = configManager.getShortestPlacedBlockTtlHours();
+                    if (shortestTtl > 0)
+                        scheduleSweep(region, region.snapshotOldestHour() + shortestTtl);
+                }
+                worlds.computeIfAbsent(world, k -> new LongObjectHashMap<>()).put(regionKey(regionX, regionZ), region);
+            }
+            region.lastAccess = System.currentTimeMillis();
+            return region;
+        }
+    }
+
+    /**
+     * Runs the action, under the lock, on every existing region overlapping the box.
+     * The action gets the box with sorted bounds: min x, y, z then max x, y, z.
+     */
+    private void forEachRegionInBox(String world, int x1, int y1, int z1, int x2, int y2, int z2,
+            RegionAction action) {
+        int[] box = { Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2), Math.max(x1, x2), Math.max(y1, y2),
+                Math.max(z1, z2) };
+        int minRegionX = box[0] >> REGION_SHIFT;
+        int maxRegionX = box[3] >> REGION_SHIFT;
+        int minRegionZ = box[2] >> REGION_SHIFT;
+        int maxRegionZ = box[5] >> REGION_SHIFT;
+
+        for (long regionKey : existingRegions(world)) {
+            int regionX = (int) (regionKey >> 32);
+            int regionZ = (int) regionKey;
+            if (regionX < minRegionX || regionX > maxRegionX || regionZ < minRegionZ || regionZ > maxRegionZ)
+                continue;
+            while (true) {
+                PlacedBlockRegion region = acquireRegion(world, regionX, regionZ);
+                synchronized (this) {
+                    if (region.evicted)
+                        continue;
+                    action.accept(region, box);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys of the resident regions of the world and of those that have a file.
+     */
+    private Set<Long> existingRegions(String world) {
+        Set<Long> regionKeys = new HashSet<>();
+        synchronized (this) {
+            LongObjectHashMap<PlacedBlockRegion> regions = worlds.get(world);
+            if (regions != null)
+                regions.forEach((key, region) -> regionKeys.add(key));
+        }
+        Path folder = worldFolder(world);
+        if (!Files.isDirectory(folder))
+            return regionKeys;
+        try (Stream<Path> files = Files.list(folder)) {
+            files.forEach(file -> {
+                // r.<x>.<z>.bin
+                String[] name = file.getFileName().toString().split("\\.");
+                if (name.length != 4 || !name[0].equals("r") || !PlacedBlockSnapshot.EXTENSION.equals("." + name[3]))
+                    return;
+                try {
+                    regionKeys.add(regionKey(Integer.parseInt(name[1]), Integer.parseInt(name[2])));
+                } catch (NumberFormatException ignored) {
+                }
+            });
+        } catch (IOException e) {
+            logger.at(Level.WARNING).withCause(e).log("Failed to list placed blocks regions of " + world);
+        }
+        return regionKeys;
+    }
+
+    private PlacedBlockRegion resident(String world, int regionX, int regionZ) {
+        LongObjectHashMap<PlacedBlockRegion> regions = worlds.get(world);
+        return regions != null ? regions.get(regionKey(regionX, regionZ)) : null;
+    }
+
+    private synchronized List<PlacedBlockRegion> residentRegions() {
+        List<PlacedBlockRegion> result = new ArrayList<>();
+        worlds.values().forEach(regions -> regions.forEach((key, region) -> result.add(region)));
+        return result;
+    }
+
+    private void evictIdleRegions() {
+        long cutoff = System.currentTimeMillis() - REGION_IDLE_MILLIS;
+        for (PlacedBlockRegion region : residentRegions()) {
+            boolean idle;
+            synchronized (this) {
+                idle = region.lastAccess < cutoff;
+            }
+            if (idle) {
+                evict(region);
+            }
+        }
+    }
+
+    private void evict(PlacedBlockRegion region) {
+        flush(region);
+        synchronized (this) {
+            // Touched or modified while flushing: keep it resident
+            if (region.evicted || region.isDirty())
+                return;
+            region.evicted = true;
+            region.close();
+            LongObjectHashMap<PlacedBlockRegion> regions = worlds.get(region.world);
+            if (regions != null) {
+                regions.remove(regionKey(region.regionX, region.regionZ));
+                if (regions.isEmpty()) {
+                    worlds.remove(region.world);
+                }
+            }
+        }
+    }
+
+    // ========== Persistence ==========
+
+    /**
+     * @return false if the region is still dirty because the write failed
+     */
+    private boolean flush(PlacedBlockRegion region) {
+        LongLongHashMap data;
+        long version;
+        synchronized (this) {
+            if (!region.isDirty())
+                return true;
+            version = region.version;
+            // Copy the entries so the write runs unlocked
+            data = new LongLongHashMap(region.size());
+            region.forEach(data::put);
+        }
+
+        Path file = regionFile(region.world, region.regionX, region.regionZ);
         try {
-            // Check if it's old format (just UUID) or new format
-            if (!data.contains(":")) {
-                return UUID.fromString(data);
+            if (data.isEmpty()) {
+                Files.deleteIfExists(file);
+            } else {
+                PlacedBlockSnapshot.write(file, region.world, data, this::placerById, this::blockById);
+            }
+            synchronized (this) {
+                region.flushedVersion = Math.max(region.flushedVersion, version);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to save placed blocks region " + file);
+            return false;
+        }
+    }
+
+    /**
+     * Builds the placer index from the header of every region file. Headers hold
+     * per-placer counts, so the entries themselves are not read.
+     */
+    private void indexRegionFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(regionFolder, 2)) {
+            paths.filter(path -> path.getFileName().toString().endsWith(PlacedBlockSnapshot.EXTENSION))
+                    .forEach(files::add);
+        }
+
+        for (Path file : files) {
+            String[] name = file.getFileName().toString().split("\\.");
+            if (name.length != 4 || !name[0].equals("r"))
+                continue;
+            try {
+                int regionX = Integer.parseInt(name[1]);
+                int regionZ = Integer.parseInt(name[2]);
+                PlacedBlockSnapshot snapshot = PlacedBlockSnapshot.open(file);
+                try {
+                    String world = snapshot.world();
+                    int[] counts = snapshot.placerCounts();
+                    synchronized (this) {
+                        long regionRef = PlacedBlockPlacerIndex.regionRef(internWorld(world), regionX, regionZ);
+                        for (int i = 0; i < counts.length; i++) {
+                            int placerId = internPlacer(snapshot.placers()[i]);
+                            if (placerId >= 0)
+                                placerIndex.add(placerId, regionRef, counts[i]);
+                        }
+                    }
+                } finally {
+                    snapshot.close();
+                }
+            } catch (NumberFormatException ignored) {
+            } catch (IOException e) {
+                logger.at(Level.SEVERE).withCause(e).log("Failed to index placed blocks region " + file);
             }
-            return UUID.fromString(data.split(":")[0]);
-        } catch (Exception e) {
-            return null;
         }
     }
 
-    public String getPlacedBlockId(int x, int y, int z) {
-        String data = placedBlocks.get(getLocationKey(x, y, z));
-        if (data == null || !data.contains(":"))
+    private PlacedBlockSnapshot openSnapshot(String world, int regionX, int regionZ) {
+        Path file = regionFile(world, regionX, regionZ);
+        if (!Files.exists(file))
             return null;
-        return data.split(":")[1];
+        try {
+            return PlacedBlockSnapshot.open(file);
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to load placed blocks region " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Converts the single {@code placed_blocks.json} of older versions once, then
+     * renames it.
+     */
+    private void convertJsonFiles() throws IOException {
+        Path legacyFile = dataFolder.resolve("placed_blocks.json");
+        if (!Files.exists(legacyFile))
+            return;
+        int converted = PlacedBlockJsonConverter.convertLegacyFile(legacyFile, LEGACY_WORLD,
+                worldFolder(LEGACY_WORLD), REGION_SHIFT);
+        Files.move(legacyFile, legacyFile.resolveSibling("placed_blocks.json.migrated"));
+        logger.at(Level.INFO).log("Converted " + converted + " placed blocks to the binary format.");
+    }
+
+    private Path worldFolder(String world) {
+        return regionFolder.resolve(world.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+
+    private Path regionFile(String world, int regionX, int regionZ) {
+        return worldFolder(world).resolve(PlacedBlockSnapshot.fileName(regionX, regionZ));
+    }
+
+    private synchronized UUID placerById(int id) {
+        return placers.get(id);
+    }
+
+    private synchronized String blockById(int id) {
+        return blockIds.get(id);
+    }
+
+    // ========== Journal ==========
+
+    private void restorePaletteEntry(byte type, String value) {
+        synchronized (this) {
+            switch (type) {
+                case PlacedBlockJournal.PALETTE_WORLD -> worldIds.idOf(value);
+                case PlacedBlockJournal.PALETTE_PLACER -> placers.idOf(UUID.fromString(value));
+                case PlacedBlockJournal.PALETTE_BLOCK -> blockIds.idOf(value);
+                default -> logger.at(Level.WARNING).log("Unknown placed block palette entry type " + type);
+            }
+        }
+    }
+
+    private boolean replayRecord(byte op, int worldId, long position, int placerId, int blockPaletteId,
+            int hour) {
+        String world;
+        synchronized (this) {
+            world = worldIds.get(worldId);
+        }
+        if (world == null)
+            return false;
+
+        int x = unpackX(position);
+        int z = unpackZ(position);
+        while (true) {
+            PlacedBlockRegion region = acquireRegion(world, x >> REGION_SHIFT, z >> REGION_SHIFT);
+            synchronized (this) {
+                if (region.evicted)
+                    continue;
+                if (op == PlacedBlockJournal.OP_ADD) {
+                    putEntry(region, position, PlacedBlockRegion.encode(placerId, blockPaletteId, hour));
+                    scheduleExpiry(region, blockPaletteId, hour);
+                } else {
+                    removeEntry(region, position);
+                }
+                region.markDirty();
+                return true;
+            }
+        }
+    }
+
+    // ========== Expiry ==========
+
+    /**
+     * Sweeper tick: moves regions whose next expiry has passed to the sweep queue,
+     * then removes expired records from them, at most {@link #SWEEP_BATCH} per tick.
+     */
+    private void sweepExpired() {
+        int hour = PlacedBlockRegion.currentHour();
+        int budget = SWEEP_BATCH;
+        synchronized (this) {
+            for (PlacedBlockRegion region : sweepWheel.advance(System.currentTimeMillis())) {
+                // Evicted regions reschedule when mapped again
+                if (region.evicted || region.sweepHour == Long.MAX_VALUE)
+                    continue;
+                if (region.sweepHour <= hour) {
+                    region.sweepHour = Long.MAX_VALUE;
+                    sweepQueue.add(region);
+                } else {
+                    // Fired early after a pause longer than a turn of the wheel, or a stale entry
+                    // left by rescheduling; scheduled again so the region is never left out
+                    sweepWheel.schedule(region, TimeUnit.HOURS.toMillis(region.sweepHour));
+                }
+            }
+        }
+
+        int removed = 0;
+        while (budget > 0) {
+            // The lock is released between regions so lookups are never stalled for long
+            synchronized (this) {
+                PlacedBlockRegion region = sweepQueue.poll();
+                if (region == null)
+                    break;
+                if (region.evicted)
+                    continue;
+                int count = sweep(region, hour, budget);
+                budget -= count;
+                removed += count;
+            }
+        }
+        if (removed > 0) {
+            logger.at(Level.FINE).log("Expired " + removed + " placed block records.");
+        }
+    }
+
+    /**
+     * Removes up to {@code budget} expired records from the region and schedules
+     * it again for its next expiry. Must be called while holding the lock.
+     *
+     * @return the number of removed records
+     */
+    private int sweep(PlacedBlockRegion region, int hour, int budget) {
+        long[] expired = new long[Math.min(budget, region.size())];
+        int[] count = new int[1];
+        long[] nextExpiry = { Long.MAX_VALUE };
+        boolean[] truncated = new boolean[1];
+        region.forEach((key, value) -> {
+            int ttl = ttlHours(PlacedBlockRegion.blockId(value));
+            if (ttl <= 0)
+                return;
+            long expiry = (long) PlacedBlockRegion.hour(value) + ttl;
+            if (expiry > hour) {
+                nextExpiry[0] = Math.min(nextExpiry[0], expiry);
+            } else if (count[0] < expired.length) {
+                expired[count[0]++] = key;
+            } else {
+                truncated[0] = true;
+            }
+        });
+
+        for (int i = 0; i < count[0]; i++) {
+            removeEntry(region, expired[i]);
+            journal.appendRemove(region.worldId, expired[i]);
+        }
+        if (count[0] > 0)
+            region.markDirty();
+
+        if (truncated[0]) {
+            sweepQueue.addFirst(region);
+        } else if (nextExpiry[0] != Long.MAX_VALUE) {
+            scheduleSweep(region, nextExpiry[0]);
+        }
+        return count[0];
+    }
+
+    // The expiry helpers must be called while holding the lock
+
+    private void scheduleExpiry(PlacedBlockRegion region, int blockPaletteId, int hour) {
+        int ttl = ttlHours(blockPaletteId);
+        if (ttl > 0)
+            scheduleSweep(region, (long) hour + ttl);
+    }
+
+    private void scheduleSweep(PlacedBlockRegion region, long hour) {
+        // Only ever moved earlier, a later entry left in the wheel is put back at sweepHour when it fires
+        if (hour >= region.sweepHour)
+            return;
+        region.sweepHour = hour;
+        sweepWheel.schedule(region, TimeUnit.HOURS.toMillis(hour));
+    }
+
+    private boolean isExpired(long value, int hour) {
+        int ttl = ttlHours(PlacedBlockRegion.blockId(value));
+        return ttl > 0 && (long) PlacedBlockRegion.hour(value) + ttl <= hour;
+    }
+
+    private int ttlHours(int blockPaletteId) {
+        ConfigManager.Config config = configManager.getConfig();
+        if (config != ttlConfig) {
+            ttlConfig = config;
+            Arrays.fill(ttlByBlock, -1);
+        }
+        if (blockPaletteId >= ttlByBlock.length) {
+            int oldLength = ttlByBlock.length;
+            ttlByBlock = Arrays.copyOf(ttlByBlock, Math.max(blockPaletteId + 1, oldLength * 2));
+            Arrays.fill(ttlByBlock, oldLength, ttlByBlock.length, -1);
+        }
+        int ttl = ttlByBlock[blockPaletteId];
+        if (ttl < 0) {
+            ttl = configManager.getPlacedBlockTtlHours(blockIds.get(blockPaletteId));
+            ttlByBlock[blockPaletteId] = ttl;
+        }
+        return ttl;
+    }
+
+    // ========== Mutations ==========
+
+    // Every change to a region goes through these two, so the placer index stays exact.
+    // Must be called while holding the lock.
+
+    private long putEntry(PlacedBlockRegion region, long key, long value) {
+        long previous = region.put(key, value);
+        long regionRef = PlacedBlockPlacerIndex.regionRef(region.worldId, region.regionX, region.regionZ);
+        if (previous != LongLongHashMap.NO_VALUE)
+            placerIndex.decrement(PlacedBlockRegion.placerId(previous), regionRef);
+        placerIndex.increment(PlacedBlockRegion.placerId(value), regionRef);
+        return previous;
+    }
+
+    private long removeEntry(PlacedBlockRegion region, long key) {
+        long previous = region.remove(key);
+        if (previous != LongLongHashMap.NO_VALUE) {
+            long regionRef = PlacedBlockPlacerIndex.regionRef(region.worldId, region.regionX, region.regionZ);
+            placerIndex.decrement(PlacedBlockRegion.placerId(previous), regionRef);
+        }
+        return previous;
+    }
+
+    // The intern helpers must be called while holding the lock
+
+    private int internWorld(String world) {
+        int size = worldIds.size();
+        int id = worldIds.idOf(world);
+        if (id == size)
+            journal.appendPalette(PlacedBlockJournal.PALETTE_WORLD, world);
+        return id;
+    }
+
+    // Ids are packed into entry values and never reclaimed, -1 once the value would not fit
+    private int internPlacer(UUID placer) {
+        int id = placers.find(placer);
+        if (id >= 0)
+            return id;
+        if (placers.size() > PlacedBlockRegion.MAX_PLACER_ID)
+            return paletteFull("placer");
+        id = placers.idOf(placer);
+        journal.appendPalette(PlacedBlockJournal.PALETTE_PLACER, placer.toString());
+        return id;
+    }
+
+    private int internBlock(String blockId) {
+        int id = blockIds.find(blockId);
+        if (id >= 0)
+            return id;
+        if (blockIds.size() > PlacedBlockRegion.MAX_BLOCK_ID)
+            return paletteFull("block");
+        id = blockIds.idOf(blockId);
+        journal.appendPalette(PlacedBlockJournal.PALETTE_BLOCK, blockId);
+        return id;
+    }
+
+    private int paletteFull(String palette) {
+        if (!paletteFullLogged) {
+            paletteFullLogged = true;
+            logger.at(Level.SEVERE).log("The placed blocks " + palette
+                    + " palette is full, new placers or blocks are not tracked anymore");
+        }
+        return -1;
+    }
+
+    @FunctionalInterface
+    private interface RegionAction {
+        void accept(PlacedBlockRegion region, int[] box);
+    }
+
+    // ========== Encoding ==========
+
+    private static long regionKey(int regionX, int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+
+    // 26 bits of X, 26 bits of Z, 12 bits of Y
+    static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
     }
 
-    private String getLocationKey(int x, int y, int z) {
-        return x + "," + y + "," + z;
+    static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
     }
 }
@@ -0,0 +1,105 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.util.LongLongHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Secondary index of {@link PlacedBlockManager}: for each placer palette id, the
+ * total number of tracked blocks and the regions holding them, with a count per
+ * region. It covers every region, resident or not, so per-player queries only visit
+ * the regions the player actually built in. The per-region totals over all
+ * placers also tell which regions hold no tracked block at all.
+ * <p>
+ * Guarded by the owning manager.
+ */
+class PlacedBlockPlacerIndex {
+    private int[] totals = new int[16];
+    private LongLongHashMap[] regions = new LongLongHashMap[16];
+    private final LongLongHashMap regionTotals = new LongLongHashMap();
+
+    void add(int placerId, long regionRef, int count) {
+        if (count == 0)
+            return;
+        ensureCapacity(placerId);
+        totals[placerId] += count;
+        LongLongHashMap placerRegions = regions[placerId];
+        if (placerRegions == null) {
+            placerRegions = new LongLongHashMap();
+            regions[placerId] = placerRegions;
+        }
+        addTo(placerRegions, regionRef, count);
+        addTo(regionTotals, regionRef, count);
+    }
+
+    private static void addTo(LongLongHashMap counts, long key, int count) {
+        long current = counts.get(key);
+        long updated = (current == LongLongHashMap.NO_VALUE ? 0 : current) + count;
+        if (updated > 0) {
+            counts.put(key, updated);
+        } else {
+            counts.remove(key);
+        }
+    }
+
+    void increment(int placerId, long regionRef) {
+        add(placerId, regionRef, 1);
+    }
+
+    void decrement(int placerId, long regionRef) {
+        add(placerId, regionRef, -1);
+    }
+
+    int total(int placerId) {
+        return placerId < totals.length ? totals[placerId] : 0;
+    }
+
+    /**
+     * Number of tracked blocks in the region, all placers included.
+     */
+    long regionTotal(long regionRef) {
+        long total = regionTotals.get(regionRef);
+        return total == LongLongHashMap.NO_VALUE ? 0 : total;
+    }
+
+    /**
+     * @return the regions holding blocks of the placer, see {@link #regionRef}
+     */
+    long[] regions(int placerId) {
+        LongLongHashMap placerRegions = placerId < regions.length ? regions[placerId] : null;
+        if (placerRegions == null)
+            return new long[0];
+        long[] result = new long[placerRegions.size()];
+        int[] fill = new int[1];
+        placerRegions.forEach((regionRef, count) -> result[fill[0]++] = regionRef);
+        return result;
+    }
+
+    private void ensureCapacity(int placerId) {
+        if (placerId < totals.length)
+            return;
+        int length = Math.max(placerId + 1, totals.length * 2);
+        totals = Arrays.copyOf(totals, length);
+        regions = Arrays.copyOf(regions, length);
+    }
+
+    // ========== Region references ==========
+
+    // 16 bits of world id, 24 bits of region X, 24 bits of region Z
+
+    static long regionRef(int worldId, int regionX, int regionZ) {
+        return ((long) worldId << 48) | ((long) (regionX & 0xFFFFFF) << 24) | (regionZ & 0xFFFFFF);
+    }
+
+    static int worldId(long regionRef) {
+        return (int) (regionRef >>> 48);
+    }
+
+    static int regionX(long regionRef) {
+        return (int) (regionRef << 16 >> 40);
+    }
+
+    static int regionZ(long regionRef) {
+        return (int) (regionRef << 40 >> 40);
+    }
+}
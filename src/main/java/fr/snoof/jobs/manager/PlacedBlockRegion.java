@@ -0,0 +1,307 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.util.CountingBloomFilter;
+import fr.snoof.jobs.util.LongLongHashMap;
+
+/**
+ * Placed blocks of one region (a square of chunks) of one world. All fields are
+ * guarded by the owning {@link PlacedBlockManager}.
+ * <p>
+ * A region read from disk starts out backed by its mapped {@link PlacedBlockSnapshot}:
+ * lookups binary-search the file and nothing is copied to the heap. The heap index
+ * is only built by the first mutation, so breaking natural terrain never builds it.
+ * <p>
+ * The heap index is bucketed per chunk, so box queries only visit the chunks they
+ * overlap. On the snapshot they binary-search the sorted keys for the X range.
+ * <p>
+ * A counting Bloom filter over the whole region answers most lookups of positions
+ * that were never placed (natural terrain) before any probe of the index or file.
+ * Placements cluster in a few chunks, so it is not split per chunk; it is rebuilt
+ * when the region outgrows it and when most of its entries are gone, which also
+ * clears counters that saturated meanwhile.
+ */
+class PlacedBlockRegion {
+    private static final int CHUNKS_PER_SIDE =
+            1 << (PlacedBlockManager.REGION_SHIFT - PlacedBlockManager.CHUNK_SHIFT);
+    private static final int REGION_SIZE = 1 << PlacedBlockManager.REGION_SHIFT;
+
+    final String world;
+    final int worldId;
+    final int regionX;
+    final int regionZ;
+
+    // Exactly one of chunks / snapshot is non-null; empty chunk buckets are null
+    private LongLongHashMap[] chunks;
+    private int size;
+    private CountingBloomFilter filter;
+    private PlacedBlockSnapshot snapshot;
+    // Snapshot dictionary index -> palette id
+    private int[] snapshotPlacers;
+    private int[] snapshotBlocks;
+
+    // Bumped on every mutation, so a flush can tell whether it wrote the latest state
+    long version;
+    long flushedVersion;
+    long lastAccess;
+    boolean evicted;
+    // Hour at which the sweeper next visits this region, Long.MAX_VALUE if not scheduled
+    long sweepHour = Long.MAX_VALUE;
+
+    PlacedBlockRegion(String world, int worldId, int regionX, int regionZ) {
+        this.world = world;
+        this.worldId = worldId;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        this.chunks = new LongLongHashMap[CHUNKS_PER_SIDE * CHUNKS_PER_SIDE];
+        this.filter = CountingBloomFilter.forKeys(0);
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * @param filter built by {@link #buildFilter} from the same snapshot
+     */
+    PlacedBlockRegion(String world, int worldId, int regionX, int regionZ, PlacedBlockSnapshot snapshot,
+            CountingBloomFilter filter, int[] snapshotPlacers, int[] snapshotBlocks) {
+        this.world = world;
+        this.worldId = worldId;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        this.snapshot = snapshot;
+        this.filter = filter;
+        this.snapshotPlacers = snapshotPlacers;
+        this.snapshotBlocks = snapshotBlocks;
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    boolean isDirty() {
+        return version != flushedVersion;
+    }
+
+    void markDirty() {
+        version++;
+    }
+
+    /**
+     * Oldest placement hour, as recorded in the snapshot header. Only meaningful
+     * while the region is still backed by its snapshot.
+     */
+    int snapshotOldestHour() {
+        return snapshot != null ? snapshot.oldestHour() : Integer.MAX_VALUE;
+    }
+
+    int size() {
+        return chunks != null ? size : snapshot.size();
+    }
+
+    /**
+     * @return false if the position is definitely not tracked
+     */
+    boolean mightContain(long key) {
+        return filter.mightContain(key);
+    }
+
+    long get(long key) {
+        if (!mightContain(key))
+            return LongLongHashMap.NO_VALUE;
+        if (chunks != null) {
+            LongLongHashMap bucket = chunks[chunkIndex(key)];
+            return bucket != null ? bucket.get(key) : LongLongHashMap.NO_VALUE;
+        }
+        int index = snapshot.find(key);
+        return index >= 0 ? translate(snapshot.valueAt(index)) : LongLongHashMap.NO_VALUE;
+    }
+
+    long put(long key, long value) {
+        materialize();
+        int chunk = chunkIndex(key);
+        LongLongHashMap bucket = chunks[chunk];
+        if (bucket == null) {
+            bucket = new LongLongHashMap();
+            chunks[chunk] = bucket;
+        }
+        long previous = bucket.put(key, value);
+        if (previous == LongLongHashMap.NO_VALUE) {
+            size++;
+            if (size > filter.capacity()) {
+                rebuildFilter();
+            } else {
+                filter.add(key);
+            }
+        }
+        return previous;
+    }
+
+    long remove(long key) {
+        // A miss does not need the heap index
+        if (!mightContain(key) || (chunks == null && snapshot.find(key) < 0))
+            return LongLongHashMap.NO_VALUE;
+        materialize();
+        int chunk = chunkIndex(key);
+        LongLongHashMap bucket = chunks[chunk];
+        if (bucket == null)
+            return LongLongHashMap.NO_VALUE;
+        long previous = bucket.remove(key);
+        if (previous != LongLongHashMap.NO_VALUE) {
+            size--;
+            if (bucket.isEmpty())
+                chunks[chunk] = null;
+            if (size < filter.capacity() / 8) {
+                rebuildFilter();
+            } else {
+                filter.remove(key);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Drops the snapshot mapping and the heap index. The region must not be used
+     * afterwards; it may still be referenced by the sweeper until its entry fires.
+     */
+    void close() {
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+        chunks = null;
+        filter = null;
+    }
+
+    /**
+     * Builds the filter of a snapshot-backed region. Reads every key, so it is
+     * meant to run before taking the manager lock.
+     */
+    static CountingBloomFilter buildFilter(PlacedBlockSnapshot snapshot) {
+        CountingBloomFilter filter = CountingBloomFilter.forKeys(snapshot.size() * 2);
+        for (int i = 0; i < snapshot.size(); i++) {
+            filter.add(snapshot.keyAt(i));
+        }
+        return filter;
+    }
+
+    // Sized for twice the current entries, so the next rebuild takes doubling or dropping to a quarter
+    private void rebuildFilter() {
+        CountingBloomFilter rebuilt = CountingBloomFilter.forKeys(size * 2);
+        forEach((key, value) -> rebuilt.add(key));
+        filter = rebuilt;
+    }
+
+    private void materialize() {
+        if (chunks != null)
+            return;
+        PlacedBlockSnapshot mapped = snapshot;
+        chunks = new LongLongHashMap[CHUNKS_PER_SIDE * CHUNKS_PER_SIDE];
+        for (int i = 0; i < mapped.size(); i++) {
+            long key = mapped.keyAt(i);
+            int chunk = chunkIndex(key);
+            if (chunks[chunk] == null)
+                chunks[chunk] = new LongLongHashMap();
+            chunks[chunk].put(key, translate(mapped.valueAt(i)));
+        }
+        size = mapped.size();
+        mapped.close();
+        snapshot = null;
+        snapshotPlacers = null;
+        snapshotBlocks = null;
+    }
+
+    /**
+     * Visits every entry without building the heap index.
+     */
+    void forEach(LongLongHashMap.Consumer consumer) {
+        if (chunks != null) {
+            for (LongLongHashMap bucket : chunks) {
+                if (bucket != null)
+                    bucket.forEach(consumer);
+            }
+            return;
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            consumer.accept(snapshot.keyAt(i), translate(snapshot.valueAt(i)));
+        }
+    }
+
+    /**
+     * Visits the entries inside the box (inclusive bounds), without building the
+     * heap index. Only the overlapping chunks, or the matching X range of the
+     * snapshot, are looked at.
+     */
+    void forEachInBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            LongLongHashMap.Consumer consumer) {
+        int baseX = regionX << PlacedBlockManager.REGION_SHIFT;
+        int baseZ = regionZ << PlacedBlockManager.REGION_SHIFT;
+        int fromX = Math.max(minX, baseX);
+        int toX = Math.min(maxX, baseX + REGION_SIZE - 1);
+        int fromZ = Math.max(minZ, baseZ);
+        int toZ = Math.min(maxZ, baseZ + REGION_SIZE - 1);
+        if (fromX > toX || fromZ > toZ || minY > maxY)
+            return;
+
+        LongLongHashMap.Consumer inBox = (key, value) -> {
+            int x = PlacedBlockManager.unpackX(key);
+            int y = PlacedBlockManager.unpackY(key);
+            int z = PlacedBlockManager.unpackZ(key);
+            if (x >= fromX && x <= toX && y >= minY && y <= maxY && z >= fromZ && z <= toZ)
+                consumer.accept(key, value);
+        };
+
+        if (chunks != null) {
+            int shift = PlacedBlockManager.CHUNK_SHIFT;
+            int mask = CHUNKS_PER_SIDE - 1;
+            for (int cx = fromX >> shift; cx <= toX >> shift; cx++) {
+                for (int cz = fromZ >> shift; cz <= toZ >> shift; cz++) {
+                    LongLongHashMap bucket = chunks[(cx & mask) * CHUNKS_PER_SIDE + (cz & mask)];
+                    if (bucket != null)
+                        bucket.forEach(inBox);
+                }
+            }
+            return;
+        }
+
+        // Keys sort by X first, and all X of one region share a sign, so the X range is contiguous
+        long lastKey = PlacedBlockManager.pack(toX, -1, -1);
+        for (int i = snapshot.lowerBound(PlacedBlockManager.pack(fromX, 0, 0)); i < snapshot.size(); i++) {
+            long key = snapshot.keyAt(i);
+            if (key > lastKey)
+                break;
+            inBox.accept(key, translate(snapshot.valueAt(i)));
+        }
+    }
+
+    private static int chunkIndex(long key) {
+        int mask = CHUNKS_PER_SIDE - 1;
+        int chunkX = (PlacedBlockManager.unpackX(key) >> PlacedBlockManager.CHUNK_SHIFT) & mask;
+        int chunkZ = (PlacedBlockManager.unpackZ(key) >> PlacedBlockManager.CHUNK_SHIFT) & mask;
+        return chunkX * CHUNKS_PER_SIDE + chunkZ;
+    }
+
+    private long translate(long fileValue) {
+        return encode(snapshotPlacers[placerId(fileValue)], snapshotBlocks[blockId(fileValue)], hour(fileValue));
+    }
+
+    // ========== Value encoding ==========
+
+    // 24 bits of placer id, 16 bits of block id, 24 bits of placement hour since the epoch
+    static final int MAX_PLACER_ID = (1 << 24) - 1;
+    static final int MAX_BLOCK_ID = (1 << 16) - 1;
+
+    static long encode(int placerId, int blockId, int hour) {
+        return ((long) (placerId & 0xFFFFFF) << 40) | ((long) (blockId & 0xFFFF) << 24) | (hour & 0xFFFFFF);
+    }
+
+    static int placerId(long value) {
+        return (int) (value >>> 40);
+    }
+
+    static int blockId(long value) {
+        return (int) (value >>> 24) & 0xFFFF;
+    }
+
+    static int hour(long value) {
+        return (int) value & 0xFFFFFF;
+    }
+
+    static int currentHour() {
+        return (int) (System.currentTimeMillis() / 3_600_000L);
+    }
+}
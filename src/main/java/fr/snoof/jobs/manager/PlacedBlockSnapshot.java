@@ -0,0 +1,303 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.util.LongLongHashMap;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Versioned binary snapshot of one placed-block region, read through a
+ * {@link MappedByteBuffer}.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * int magic "EJPS", int version, int entries, int placers, int blocks, int oldest hour
+ * short length, UTF-8 world name
+ * placers x (long msb, long lsb, int entries)
+ * blocks  x (byte present, [short length, UTF-8 bytes])
+ * padding to 8 bytes
+ * entries x long packed position, sorted ascending
+ * entries x long value, encoded as in {@link PlacedBlockRegion}
+ * </pre>
+ * Placer and block ids in the values are indices into the file's own dictionaries,
+ * so the file does not depend on the in-memory palettes.
+ */
+final class PlacedBlockSnapshot {
+    static final String EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x454A5053; // "EJPS"
+    private static final int VERSION = 1;
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // Mappings are then released by the garbage collector
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final UUID[] placers;
+    private final String[] blocks;
+    private final int keysOffset;
+    private final int valuesOffset;
+    private final int oldestHour;
+    private final String world;
+    private final int[] placerCounts;
+
+    private PlacedBlockSnapshot(MappedByteBuffer buffer, int size, UUID[] placers, String[] blocks, int keysOffset,
+            int oldestHour, String world, int[] placerCounts) {
+        this.buffer = buffer;
+        this.size = size;
+        this.placers = placers;
+        this.blocks = blocks;
+        this.keysOffset = keysOffset;
+        this.valuesOffset = keysOffset + size * Long.BYTES;
+        this.oldestHour = oldestHour;
+        this.world = world;
+        this.placerCounts = placerCounts;
+    }
+
+    static String fileName(int regionX, int regionZ) {
+        return "r." + regionX + "." + regionZ + EXTENSION;
+    }
+
+    // ========== Reading ==========
+
+    /**
+     * Maps the file and decodes its header and dictionaries. Entries stay on disk.
+     */
+    static PlacedBlockSnapshot open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a placed blocks snapshot: " + file);
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported placed blocks snapshot version " + version + ": " + file);
+
+            int size = buffer.getInt();
+            UUID[] placers = new UUID[buffer.getInt()];
+            String[] blocks = new String[buffer.getInt()];
+            int oldestHour = buffer.getInt();
+            byte[] worldBytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(worldBytes);
+            String world = new String(worldBytes, StandardCharsets.UTF_8);
+            int[] placerCounts = new int[placers.length];
+            for (int i = 0; i < placers.length; i++) {
+                placers[i] = new UUID(buffer.getLong(), buffer.getLong());
+                placerCounts[i] = buffer.getInt();
+            }
+            for (int i = 0; i < blocks.length; i++) {
+                if (buffer.get() != 0) {
+                    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(bytes);
+                    blocks[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+
+            int keysOffset = align(buffer.position());
+            if ((long) keysOffset + (long) size * 2 * Long.BYTES > buffer.capacity())
+                throw new IOException("Truncated placed blocks snapshot: " + file);
+            return new PlacedBlockSnapshot(buffer, size, placers, blocks, keysOffset, oldestHour, world,
+                    placerCounts);
+        } catch (RuntimeException e) {
+            unmap(buffer);
+            throw new IOException("Corrupted placed blocks snapshot: " + file, e);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    UUID[] placers() {
+        return placers;
+    }
+
+    String[] blocks() {
+        return blocks;
+    }
+
+    int oldestHour() {
+        return oldestHour;
+    }
+
+    String world() {
+        return world;
+    }
+
+    /**
+     * Number of entries of each placer of {@link #placers()}.
+     */
+    int[] placerCounts() {
+        return placerCounts;
+    }
+
+    long keyAt(int index) {
+        return buffer.getLong(keysOffset + index * Long.BYTES);
+    }
+
+    long valueAt(int index) {
+        return buffer.getLong(valuesOffset + index * Long.BYTES);
+    }
+
+    /**
+     * Binary search over the mapped keys.
+     *
+     * @return the entry index, or -1 if absent
+     */
+    int find(long key) {
+        int index = lowerBound(key);
+        return index < size && keyAt(index) == key ? index : -1;
+    }
+
+    /**
+     * @return the index of the first key greater than or equal to {@code key}, or the size
+     */
+    int lowerBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keyAt(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Releases the mapping right away so the file can be replaced, even on Windows.
+     * The snapshot must not be used afterwards.
+     */
+    void close() {
+        unmap(buffer);
+    }
+
+    // ========== Writing ==========
+
+    /**
+     * Writes the blocks atomically (temp file, fsync, rename). Values must use the
+     * in-memory encoding; the resolvers turn their placer and block ids back into
+     * objects for the file's dictionaries.
+     */
+    static void write(Path file, String world, LongLongHashMap entries, IntFunction<UUID> placerResolver,
+            IntFunction<String> blockResolver) throws IOException {
+        int size = entries.size();
+        long[] keys = new long[size];
+        int[] fill = new int[1];
+        entries.forEach((key, value) -> keys[fill[0]++] = key);
+        Arrays.sort(keys);
+
+        // Dictionary-encode placers and blocks in first-seen order
+        Map<Integer, Integer> placerIndex = new HashMap<>();
+        Map<Integer, Integer> blockIndex = new HashMap<>();
+        long[] values = new long[size];
+        int[] placerCounts = new int[size];
+        int oldestHour = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            long value = entries.get(keys[i]);
+            int placer = placerIndex.computeIfAbsent(PlacedBlockRegion.placerId(value), k -> placerIndex.size());
+            int block = blockIndex.computeIfAbsent(PlacedBlockRegion.blockId(value), k -> blockIndex.size());
+            int hour = PlacedBlockRegion.hour(value);
+            values[i] = PlacedBlockRegion.encode(placer, block, hour);
+            placerCounts[placer]++;
+            oldestHour = Math.min(oldestHour, hour);
+        }
+
+        byte[] worldBytes = world.getBytes(StandardCharsets.UTF_8);
+        UUID[] placers = new UUID[placerIndex.size()];
+        placerIndex.forEach((id, index) -> placers[index] = placerResolver.apply(id));
+        byte[][] blocks = new byte[blockIndex.size()][];
+        blockIndex.forEach((id, index) -> {
+            String block = blockResolver.apply(id);
+            blocks[index] = block != null ? block.getBytes(StandardCharsets.UTF_8) : null;
+        });
+
+        int dictionaries = Short.BYTES + worldBytes.length + placers.length * (2 * Long.BYTES + Integer.BYTES);
+        for (byte[] block : blocks) {
+            dictionaries += 1 + (block != null ? Short.BYTES + block.length : 0);
+        }
+        int keysOffset = align(6 * Integer.BYTES + dictionaries);
+        ByteBuffer buffer = ByteBuffer.allocate(keysOffset + size * 2 * Long.BYTES);
+
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(placers.length).putInt(blocks.length)
+                .putInt(oldestHour);
+        buffer.putShort((short) worldBytes.length).put(worldBytes);
+        for (int i = 0; i < placers.length; i++) {
+            buffer.putLong(placers[i].getMostSignificantBits()).putLong(placers[i].getLeastSignificantBits())
+                    .putInt(placerCounts[i]);
+        }
+        for (byte[] block : blocks) {
+            if (block == null) {
+                buffer.put((byte) 0);
+            } else {
+                buffer.put((byte) 1).putShort((short) block.length).put(block);
+            }
+        }
+        buffer.position(keysOffset);
+        for (long key : keys) {
+            buffer.putLong(key);
+        }
+        for (long value : values) {
+            buffer.putLong(value);
+        }
+        buffer.flip();
+
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int align(int offset) {
+        return (offset + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null)
+            return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+    }
+}
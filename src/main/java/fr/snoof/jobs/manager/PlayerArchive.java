@@ -0,0 +1,408 @@
+package fr.snoof.jobs.manager;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobPlayerAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold tier for the profiles of long-inactive players. {@code archive.dat} is an
+ * append-only sequence of self-describing records, each holding one deflated
+ * profile; a later record for the same player supersedes the earlier ones and a
+ * record without payload marks a promotion back to the active store.
+ * {@code archive.idx} is an append-only offset index of those records, read into
+ * memory on open, with a commit marker after each batch. Both files carry the
+ * same generation number; if they disagree, or the index lags behind, the index
+ * is rebuilt from the data file.
+ * <p>
+ * Data record: msb, lsb, lastSeen, payload length (-1 = removed), name length, name, payload.
+ * Index record: type, then msb, lsb, payload offset, payload length, lastSeen, name length, name;
+ * or the data end for a commit marker.
+ */
+class PlayerArchive {
+    private static final int DATA_MAGIC = 0x454A4144; // "EJAD"
+    private static final int INDEX_MAGIC = 0x454A4149; // "EJAI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int DATA_RECORD_FIXED = 8 + 8 + 8 + 4 + 2;
+    private static final int INDEX_ENTRY_FIXED = 1 + 8 + 8 + 8 + 4 + 8 + 2;
+    private static final byte INDEX_ENTRY = 1;
+    private static final byte INDEX_COMMIT = 2;
+    // Compaction only pays off once the dead records weigh something
+    private static final long COMPACT_MIN_DEAD_BYTES = 1 << 20;
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(JobPlayer.class, new JobPlayerAdapter())
+            .create();
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final Map<UUID, Entry> entries = new HashMap<>();
+    private FileChannel data;
+    private FileChannel index;
+    private long generation;
+    private long dataEnd;
+    private long liveBytes;
+    private long deadBytes;
+
+    PlayerArchive(Path folder) {
+        this.dataFile = folder.resolve("archive.dat");
+        this.indexFile = folder.resolve("archive.idx");
+    }
+
+    synchronized void open() throws IOException {
+        Files.createDirectories(dataFile.getParent());
+        data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (data.size() < HEADER_SIZE) {
+            generation = ThreadLocalRandom.current().nextLong();
+            data.truncate(0);
+            writeFully(data, header(DATA_MAGIC, generation), 0);
+            data.force(true);
+        } else {
+            ByteBuffer header = readFully(data, 0, HEADER_SIZE);
+            if (header.getInt() != DATA_MAGIC || header.getInt() != VERSION)
+                throw new IOException("Unsupported archive file " + dataFile);
+            generation = header.getLong();
+        }
+
+        index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long indexedEnd = readIndex();
+        if (indexedEnd < 0 || indexedEnd > data.size()) {
+            // Missing, stale or ahead of the data it describes: start over from the data file
+            entries.clear();
+            liveBytes = 0;
+            deadBytes = 0;
+            index.truncate(0);
+            writeFully(index, header(INDEX_MAGIC, generation), 0);
+            indexedEnd = HEADER_SIZE;
+        }
+        dataEnd = indexedEnd;
+        if (data.size() > indexedEnd)
+            recoverTail();
+    }
+
+    /**
+     * @return the data end of the last commit, or -1 if the index cannot be used
+     */
+    private long readIndex() throws IOException {
+        long size = index.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+            return -1;
+        ByteBuffer buffer = readFully(index, 0, (int) size);
+        if (buffer.getInt() != INDEX_MAGIC || buffer.getInt() != VERSION || buffer.getLong() != generation)
+            return -1;
+
+        long committedEnd = HEADER_SIZE;
+        int committedPosition = HEADER_SIZE;
+        Map<UUID, Entry> pending = new HashMap<>();
+        while (buffer.hasRemaining()) {
+            byte type = buffer.get();
+            if (type == INDEX_COMMIT && buffer.remaining() >= Long.BYTES) {
+                committedEnd = buffer.getLong();
+                pending.forEach(this::apply);
+                pending.clear();
+                committedPosition = buffer.position();
+            } else if (type == INDEX_ENTRY && buffer.remaining() >= INDEX_ENTRY_FIXED - 1) {
+                UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                long lastSeen = buffer.getLong();
+                int nameLength = buffer.getShort() & 0xFFFF;
+                if (buffer.remaining() < nameLength)
+                    break;
+                byte[] name = new byte[nameLength];
+                buffer.get(name);
+                pending.put(uuid, new Entry(offset, length, lastSeen, new String(name, StandardCharsets.UTF_8)));
+            } else {
+                break;
+            }
+        }
+        // Drop an uncommitted tail left by a crash
+        index.truncate(committedPosition);
+        return committedEnd;
+    }
+
+    // Records written to the data file but not indexed yet, e.g. after a crash between the two writes
+    private void recoverTail() throws IOException {
+        long size = data.size();
+        long position = dataEnd;
+        Map<UUID, Entry> recovered = new HashMap<>();
+        while (position + DATA_RECORD_FIXED <= size) {
+            ByteBuffer fixed = readFully(data, position, DATA_RECORD_FIXED);
+            UUID uuid = new UUID(fixed.getLong(), fixed.getLong());
+            long lastSeen = fixed.getLong();
+            int length = fixed.getInt();
+            int nameLength = fixed.getShort() & 0xFFFF;
+            long payloadOffset = position + DATA_RECORD_FIXED + nameLength;
+            long end = payloadOffset + Math.max(length, 0);
+            if (end > size)
+                break;
+            String name = new String(readFully(data, position + DATA_RECORD_FIXED, nameLength).array(),
+                    StandardCharsets.UTF_8);
+            recovered.put(uuid, new Entry(payloadOffset, length, lastSeen, name));
+            position = end;
+        }
+        data.truncate(position);
+        if (!recovered.isEmpty())
+            commitIndex(recovered, position);
+        dataEnd = position;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized boolean contains(UUID uuid) {
+        return entries.containsKey(uuid);
+    }
+
+    synchronized JobPlayer load(UUID uuid) throws IOException {
+        Entry entry = entries.get(uuid);
+        if (entry == null)
+            return null;
+        byte[] json = inflate(readFully(data, entry.offset, entry.length).array());
+        return GSON.fromJson(new String(json, StandardCharsets.UTF_8), JobPlayer.class);
+    }
+
+    synchronized Map<UUID, JobPlayer> loadAll() throws IOException {
+        Map<UUID, JobPlayer> loaded = new HashMap<>();
+        for (UUID uuid : entries.keySet()) {
+            loaded.put(uuid, load(uuid));
+        }
+        return loaded;
+    }
+
+    synchronized UUID findByName(String name) {
+        UUID found = null;
+        long foundLastSeen = Long.MIN_VALUE;
+        for (Map.Entry<UUID, Entry> entry : entries.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getValue().name) && entry.getValue().lastSeen > foundLastSeen) {
+                found = entry.getKey();
+                foundLastSeen = entry.getValue().lastSeen;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Appends the profiles; they are durable once this returns.
+     */
+    synchronized void append(Collection<JobPlayer> players) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        Map<UUID, Entry> appended = new HashMap<>();
+        for (JobPlayer player : players) {
+            byte[] payload = deflate(GSON.toJson(player).getBytes(StandardCharsets.UTF_8));
+            String name = player.getName() != null ? player.getName() : "";
+            long offset = writeRecord(records, player.getUuid(), player.getLastSeen(), name, payload);
+            appended.put(player.getUuid(), new Entry(dataEnd + offset, payload.length, player.getLastSeen(), name));
+        }
+        commit(records, appended);
+    }
+
+    /**
+     * Forgets the profile, after it went back to the active store.
+     */
+    synchronized void remove(UUID uuid) throws IOException {
+        if (!entries.containsKey(uuid))
+            return;
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        long offset = writeRecord(records, uuid, 0, "", null);
+        Map<UUID, Entry> removed = new HashMap<>();
+        removed.put(uuid, new Entry(dataEnd + offset, -1, 0, ""));
+        commit(records, removed);
+    }
+
+    private void commit(ByteArrayOutputStream records, Map<UUID, Entry> changed) throws IOException {
+        long end = dataEnd + records.size();
+        writeFully(data, ByteBuffer.wrap(records.toByteArray()), dataEnd);
+        data.force(false);
+        dataEnd = end;
+        commitIndex(changed, end);
+    }
+
+    private void commitIndex(Map<UUID, Entry> changed, long end) throws IOException {
+        writeFully(index, indexBatch(changed, end), index.size());
+        index.force(false);
+        changed.forEach(this::apply);
+    }
+
+    private static ByteBuffer indexBatch(Map<UUID, Entry> changed, long end) {
+        int size = 1 + Long.BYTES;
+        for (Entry entry : changed.values()) {
+            size += INDEX_ENTRY_FIXED + entry.name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        changed.forEach((uuid, entry) -> {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            buffer.put(INDEX_ENTRY).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits())
+                    .putLong(entry.offset).putInt(entry.length).putLong(entry.lastSeen)
+                    .putShort((short) name.length).put(name);
+        });
+        buffer.put(INDEX_COMMIT).putLong(end).flip();
+        return buffer;
+    }
+
+    private void apply(UUID uuid, Entry entry) {
+        Entry previous = entry.length < 0 ? entries.remove(uuid) : entries.put(uuid, entry);
+        if (previous != null) {
+            liveBytes -= previous.length;
+            deadBytes += previous.length;
+        }
+        if (entry.length >= 0)
+            liveBytes += entry.length;
+    }
+
+    /**
+     * Rewrites the archive without superseded records once they outweigh the live ones.
+     *
+     * @return whether the archive was compacted
+     */
+    synchronized boolean compactIfNeeded() throws IOException {
+        if (deadBytes < COMPACT_MIN_DEAD_BYTES || deadBytes < liveBytes)
+            return false;
+
+        long newGeneration = generation + 1;
+        Path dataTemp = dataFile.resolveSibling(dataFile.getFileName() + ".tmp");
+        Path indexTemp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        Map<UUID, Entry> compacted = new HashMap<>();
+        long end;
+        try (FileChannel out = FileChannel.open(dataTemp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, header(DATA_MAGIC, newGeneration), 0);
+            end = HEADER_SIZE;
+            for (Map.Entry<UUID, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                byte[] payload = readFully(data, entry.offset, entry.length).array();
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                long offset = writeRecord(record, mapEntry.getKey(), entry.lastSeen, entry.name, payload);
+                compacted.put(mapEntry.getKey(), new Entry(end + offset, entry.length, entry.lastSeen, entry.name));
+                writeFully(out, ByteBuffer.wrap(record.toByteArray()), end);
+                end += record.size();
+            }
+            out.force(true);
+        }
+        try (FileChannel out = FileChannel.open(indexTemp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, header(INDEX_MAGIC, newGeneration), 0);
+            writeFully(out, indexBatch(compacted, end), HEADER_SIZE);
+            out.force(true);
+        }
+
+        // A crash between the two moves leaves generations that disagree, and the index is rebuilt
+        data.close();
+        index.close();
+        Files.move(dataTemp, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTemp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        open();
+        return true;
+    }
+
+    synchronized void close() throws IOException {
+        if (data != null)
+            data.close();
+        if (index != null)
+            index.close();
+        data = null;
+        index = null;
+    }
+
+    /**
+     * @return the offset of the payload within {@code out}
+     */
+    private static long writeRecord(ByteArrayOutputStream out, UUID uuid, long lastSeen, String name,
+            byte[] payload) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer fixed = ByteBuffer.allocate(DATA_RECORD_FIXED);
+        fixed.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).putLong(lastSeen)
+                .putInt(payload != null ? payload.length : -1).putShort((short) nameBytes.length);
+        out.write(fixed.array(), 0, DATA_RECORD_FIXED);
+        out.write(nameBytes, 0, nameBytes.length);
+        long payloadOffset = out.size();
+        if (payload != null)
+            out.write(payload, 0, payload.length);
+        return payloadOffset;
+    }
+
+    private static ByteBuffer header(int magic, long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(magic).putInt(VERSION).putLong(generation).flip();
+        return header;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of archive");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 16);
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 4);
+            byte[] chunk = new byte[1024];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(chunk);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated archive record");
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive record", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private record Entry(long offset, int length, long lastSeen, String name) {
+    }
+}
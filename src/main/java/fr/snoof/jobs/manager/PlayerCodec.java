@@ -0,0 +1,131 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.model.JobData;
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobType;
+import fr.snoof.jobs.util.VarInts;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary form of a {@link JobPlayer}. Layout, after a magic and a schema
+ * version: UUID, name, lastSeen, log sequence, joined jobs as a bit set of ordinals, then the
+ * jobs that differ from a fresh {@link JobData}, each keyed by its {@link JobType}
+ * ordinal. Counters are varints and may-be-negative values ZigZag varints, so a
+ * typical profile takes a few dozen bytes.
+ */
+final class PlayerCodec {
+    private static final byte MAGIC = (byte) 0xEB;
+    private static final int VERSION = 1;
+    // Fields written per job: ordinal, level, actions, then experience, total, earnings, last action
+    private static final int MAX_JOB_BYTES = 3 * VarInts.MAX_INT_BYTES + 4 * VarInts.MAX_LONG_BYTES;
+
+    private PlayerCodec() {
+    }
+
+    static byte[] encode(JobPlayer player) {
+        String name = player.getName();
+        byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        Map<JobType, JobData> jobs = player.getJobs();
+        int jobCount = jobs != null ? jobs.size() : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(1 + VarInts.MAX_INT_BYTES + 16 + VarInts.MAX_INT_BYTES
+                + nameBytes.length + VarInts.MAX_LONG_BYTES * 3 + VarInts.MAX_INT_BYTES + jobCount * MAX_JOB_BYTES);
+
+        buffer.put(MAGIC);
+        VarInts.putVarInt(buffer, VERSION);
+        buffer.putLong(player.getUuid().getMostSignificantBits());
+        buffer.putLong(player.getUuid().getLeastSignificantBits());
+        // 0 stands for a null name
+        VarInts.putVarInt(buffer, name != null ? nameBytes.length + 1 : 0);
+        buffer.put(nameBytes);
+        VarInts.putSignedVarLong(buffer, player.getLastSeen());
+        VarInts.putVarLong(buffer, player.getLogSequence());
+
+        long joined = 0;
+        for (JobType type : player.getJoinedJobs()) {
+            joined |= 1L << type.ordinal();
+        }
+        VarInts.putVarLong(buffer, joined);
+
+        JobData[] written = new JobData[jobCount];
+        JobType[] types = new JobType[jobCount];
+        int count = 0;
+        if (jobs != null) {
+            for (Map.Entry<JobType, JobData> entry : jobs.entrySet()) {
+                if (!isDefault(entry.getValue())) {
+                    types[count] = entry.getKey();
+                    written[count++] = entry.getValue();
+                }
+            }
+        }
+        VarInts.putVarInt(buffer, count);
+        for (int i = 0; i < count; i++) {
+            JobData data = written[i];
+            VarInts.putVarInt(buffer, types[i].ordinal());
+            VarInts.putVarInt(buffer, data.getLevel());
+            VarInts.putVarInt(buffer, data.getActionsCount());
+            VarInts.putSignedVarLong(buffer, data.getExperience());
+            VarInts.putSignedVarLong(buffer, data.getTotalExperience());
+            VarInts.putSignedVarLong(buffer, data.getTotalEarnings());
+            VarInts.putSignedVarLong(buffer, data.getLastActionTime());
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    static JobPlayer decode(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.get() != MAGIC)
+                throw new IllegalArgumentException("Not a player profile");
+            int version = VarInts.getVarInt(buffer);
+            if (version != VERSION)
+                throw new IllegalArgumentException("Unsupported profile version " + version);
+
+            JobPlayer player = new JobPlayer();
+            player.setUuid(new UUID(buffer.getLong(), buffer.getLong()));
+            int nameLength = VarInts.getVarInt(buffer);
+            if (nameLength > 0) {
+                byte[] name = new byte[nameLength - 1];
+                buffer.get(name);
+                player.setName(new String(name, StandardCharsets.UTF_8));
+            }
+            player.setLastSeen(VarInts.getSignedVarLong(buffer));
+            player.setLogSequence(VarInts.getVarLong(buffer));
+
+            long joined = VarInts.getVarLong(buffer);
+            JobType[] types = JobType.values();
+            for (JobType type : types) {
+                if ((joined & (1L << type.ordinal())) != 0)
+                    player.joinJob(type);
+            }
+
+            int count = VarInts.getVarInt(buffer);
+            for (int i = 0; i < count; i++) {
+                int ordinal = VarInts.getVarInt(buffer);
+                JobData data = new JobData();
+                data.setLevel(VarInts.getVarInt(buffer));
+                data.setActionsCount(VarInts.getVarInt(buffer));
+                data.setExperience(VarInts.getSignedVarLong(buffer));
+                data.setTotalExperience(VarInts.getSignedVarLong(buffer));
+                data.setTotalEarnings(VarInts.getSignedVarLong(buffer));
+                data.setLastActionTime(VarInts.getSignedVarLong(buffer));
+                // A job removed since the profile was written is dropped
+                if (ordinal < types.length)
+                    player.getJobs().put(types[ordinal], data);
+            }
+            return player;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated player profile", e);
+        }
+    }
+
+    private static boolean isDefault(JobData data) {
+        return data.getLevel() == 1 && data.getExperience() == 0 && data.getTotalExperience() == 0
+                && data.getTotalEarnings() == 0 && data.getActionsCount() == 0 && data.getLastActionTime() == 0;
+    }
+}
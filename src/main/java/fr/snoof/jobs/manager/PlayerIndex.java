@@ -0,0 +1,309 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Name, last-seen time and job standings of every profile of a {@link FilePlayerStore},
+ * so name lookups, inactivity scans and the leaderboards never parse profile files.
+ * Held in memory and persisted to an append-only file, each batch written after the
+ * profiles it describes.
+ * <p>
+ * A clean close rewrites the file compactly and ends it with a marker, which
+ * {@link #open} removes again. A file without the marker, left by a crash, may
+ * lag behind the profiles and must be rebuilt from them.
+ * <p>
+ * Record: length, type, msb, lsb, lastSeen, name length, name, job count, then
+ * job ordinal, level and total experience per joined job; the marker is a record
+ * of its type alone.
+ */
+class PlayerIndex {
+    private static final int MAGIC = 0x454A5049; // "EJPI"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_FIXED = 1 + 8 + 8 + 8 + 2 + 1;
+    private static final int STANDING_SIZE = 1 + 4 + 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAN = 3;
+    private static final JobType[] JOB_TYPES = JobType.values();
+
+    private final Path file;
+    private final Map<UUID, Entry> entries = new HashMap<>();
+    // Lowercase name -> players who used it, a name can be reused after a rename
+    private final Map<String, Set<UUID>> byName = new HashMap<>();
+    private FileChannel channel;
+
+    PlayerIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return false if the index may be stale and must be {@link #rebuild rebuilt}
+     */
+    synchronized boolean open() throws IOException {
+        Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+            return false;
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0)
+                return false;
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            return false;
+
+        int cleanAt;
+        try {
+            cleanAt = readRecords(buffer);
+        } catch (BufferUnderflowException e) {
+            cleanAt = -1;
+        }
+        if (cleanAt < 0 || cleanAt + Integer.BYTES + 1 != size) {
+            clear();
+            return false;
+        }
+        // Until the next clean close, a crash must leave the index without its marker
+        channel.truncate(cleanAt);
+        channel.force(false);
+        return true;
+    }
+
+    // Returns the position of the clean marker if it is the last record, else -1
+    private int readRecords(ByteBuffer buffer) {
+        int cleanAt = -1;
+        while (buffer.remaining() >= Integer.BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining())
+                break;
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            byte type = record.get();
+            if (type == CLEAN) {
+                cleanAt = start;
+                continue;
+            }
+            cleanAt = -1;
+            UUID uuid = new UUID(record.getLong(), record.getLong());
+            if (type == REMOVE) {
+                apply(uuid, null);
+                continue;
+            }
+            long lastSeen = record.getLong();
+            byte[] name = new byte[record.getShort() & 0xFFFF];
+            record.get(name);
+            int count = record.get() & 0xFF;
+            List<Standing> standings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int ordinal = record.get() & 0xFF;
+                int level = record.getInt();
+                long totalExperience = record.getLong();
+                // A job removed since the record was written
+                if (ordinal < JOB_TYPES.length)
+                    standings.add(new Standing(JOB_TYPES[ordinal], level, totalExperience));
+            }
+            apply(uuid, new Entry(new String(name, StandardCharsets.UTF_8), lastSeen, standings));
+        }
+        return cleanAt;
+    }
+
+    /**
+     * Replaces the whole index with the given profiles.
+     */
+    synchronized void rebuild(Collection<JobPlayer> players) throws IOException {
+        clear();
+        channel.truncate(0);
+        writeFully(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+        put(players);
+    }
+
+    /**
+     * Records the profiles; durable once this returns.
+     */
+    synchronized void put(Collection<JobPlayer> players) throws IOException {
+        Map<UUID, Entry> batch = new LinkedHashMap<>();
+        for (JobPlayer player : players) {
+            batch.put(player.getUuid(), Entry.of(player));
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        batch.forEach((uuid, entry) -> writeEntry(records, uuid, entry));
+        append(records);
+        batch.forEach(this::apply);
+    }
+
+    synchronized void remove(Collection<UUID> uuids) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (UUID uuid : uuids) {
+            if (entries.containsKey(uuid))
+                writeEntry(records, uuid, null);
+        }
+        append(records);
+        for (UUID uuid : uuids) {
+            apply(uuid, null);
+        }
+    }
+
+    /**
+     * Case-insensitive; if several players used the name, the one seen last.
+     */
+    synchronized UUID findByName(String name) {
+        Set<UUID> uuids = byName.get(name.toLowerCase(Locale.ROOT));
+        if (uuids == null)
+            return null;
+        UUID found = null;
+        long foundLastSeen = Long.MIN_VALUE;
+        for (UUID uuid : uuids) {
+            long lastSeen = entries.get(uuid).lastSeen;
+            if (found == null || lastSeen > foundLastSeen) {
+                found = uuid;
+                foundLastSeen = lastSeen;
+            }
+        }
+        return found;
+    }
+
+    synchronized void forEachStanding(Consumer<PlayerStore.JobStanding> visitor) {
+        entries.forEach((uuid, entry) -> {
+            for (Standing standing : entry.standings) {
+                visitor.accept(new PlayerStore.JobStanding(uuid, entry.name, standing.job, standing.level,
+                        standing.totalExperience));
+            }
+        });
+    }
+
+    synchronized List<UUID> findInactive(long seenBefore) {
+        List<UUID> inactive = new ArrayList<>();
+        entries.forEach((uuid, entry) -> {
+            if (entry.lastSeen < seenBefore)
+                inactive.add(uuid);
+        });
+        return inactive;
+    }
+
+    /**
+     * Rewrites the index without superseded records, ending with the clean marker.
+     */
+    synchronized void close() throws IOException {
+        if (channel == null)
+            return;
+        channel.close();
+        channel = null;
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        records.writeBytes(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+        entries.forEach((uuid, entry) -> writeEntry(records, uuid, entry));
+        records.writeBytes(ByteBuffer.allocate(Integer.BYTES + 1).putInt(1).put(CLEAN).array());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void append(ByteArrayOutputStream records) throws IOException {
+        if (records.size() == 0)
+            return;
+        long start = channel.size();
+        try {
+            writeFully(ByteBuffer.wrap(records.toByteArray()), start);
+            channel.force(false);
+        } catch (IOException e) {
+            // A torn batch would end the replay of everything appended after it
+            channel.truncate(start);
+            throw e;
+        }
+    }
+
+    private void apply(UUID uuid, Entry entry) {
+        Entry previous = entry != null ? entries.put(uuid, entry) : entries.remove(uuid);
+        if (previous != null) {
+            Set<UUID> uuids = byName.get(previous.key());
+            if (uuids != null && uuids.remove(uuid) && uuids.isEmpty())
+                byName.remove(previous.key());
+        }
+        if (entry != null)
+            byName.computeIfAbsent(entry.key(), k -> new HashSet<>(1)).add(uuid);
+    }
+
+    private void clear() {
+        entries.clear();
+        byName.clear();
+    }
+
+    // A null entry writes a removal
+    private static void writeEntry(ByteArrayOutputStream out, UUID uuid, Entry entry) {
+        byte[] name = entry != null ? entry.name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = entry != null ? ENTRY_FIXED + name.length + entry.standings.size() * STANDING_SIZE : 1 + 8 + 8;
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + length).putInt(length)
+                .put(entry != null ? PUT : REMOVE)
+                .putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        if (entry != null) {
+            record.putLong(entry.lastSeen).putShort((short) name.length).put(name)
+                    .put((byte) entry.standings.size());
+            for (Standing standing : entry.standings) {
+                record.put((byte) standing.job.ordinal()).putInt(standing.level).putLong(standing.totalExperience);
+            }
+        }
+        out.writeBytes(record.array());
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private record Entry(String name, long lastSeen, List<Standing> standings) {
+        Entry {
+            name = name != null ? name : "";
+        }
+
+        static Entry of(JobPlayer player) {
+            List<Standing> standings = new ArrayList<>();
+            for (JobType type : JOB_TYPES) {
+                if (player.hasJoinedJob(type))
+                    standings.add(new Standing(type, player.getLevel(type), player.getTotalExperience(type)));
+            }
+            return new Entry(player.getName(), player.getLastSeen(), standings);
+        }
+
+        String key() {
+            return name.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private record Standing(JobType job, int level, long totalExperience) {
+    }
+}
@@ -0,0 +1,62 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobType;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Persistent storage of player profiles, used by {@link DataManager}. Profiles are
+ * loaded from game threads as well as the save thread, so implementations must
+ * be thread-safe.
+ */
+public interface PlayerStore {
+
+    void open() throws IOException;
+
+    boolean isEmpty() throws IOException;
+
+    Map<UUID, JobPlayer> loadAll() throws IOException;
+
+    /**
+     * @return the stored profile, or null if the player was never saved
+     */
+    JobPlayer load(UUID uuid) throws IOException;
+
+    /**
+     * Writes the profiles, replacing their stored versions.
+     *
+     * @return the number of bytes written, or -1 if the backend cannot tell
+     */
+    long saveBatch(Collection<JobPlayer> players) throws IOException;
+
+    /**
+     * Case-insensitive lookup of a player by name.
+     *
+     * @return the UUID, or null if unknown
+     */
+    UUID findByName(String name) throws IOException;
+
+    /**
+     * @return the players last seen before {@code seenBefore}, in epoch milliseconds
+     */
+    List<UUID> findInactive(long seenBefore) throws IOException;
+
+    /**
+     * Visits the level and total experience of every stored player in each job they
+     * joined, without loading whole profiles. Used to fill the leaderboards.
+     */
+    void forEachStanding(Consumer<JobStanding> visitor) throws IOException;
+
+    void delete(Collection<UUID> uuids) throws IOException;
+
+    void close() throws IOException;
+
+    record JobStanding(UUID uuid, String name, JobType job, int level, long totalExperience) {
+    }
+}
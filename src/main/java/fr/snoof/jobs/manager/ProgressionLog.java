@@ -0,0 +1,390 @@
+package fr.snoof.jobs.manager;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import fr.snoof.jobs.model.JobType;
+import fr.snoof.jobs.util.VarInts;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of progression events (XP and earnings gained in a job), so
+ * progress made since the last save survives a crash. Appends only copy bytes
+ * into memory; a background thread group-commits them every second. Like
+ * {@link PlacedBlockJournal}, the log is split into generations: a save ends the
+ * current one, and once the save is written every generation it covers is deleted.
+ * <p>
+ * Each record is a length byte followed by the player UUID, the job ordinal, the
+ * XP and earnings deltas, the timestamp and the event sequence, as varints. Saved
+ * profiles keep the sequence of the last event they include, so a replay skips
+ * what they already hold. The header of a file carries the last sequence handed
+ * out before it, so sequences keep growing across restarts once older files are
+ * deleted.
+ */
+class ProgressionLog {
+    private static final int MAGIC = 0x454A584C; // "EJXL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_RECORD_SIZE = 1 + 16 + VarInts.MAX_INT_BYTES + 4 * VarInts.MAX_LONG_BYTES;
+    private static final int COMMIT_INTERVAL_MILLIS = 1000;
+
+    private final Path folder;
+    private final HytaleLogger logger;
+    private final ScheduledExecutorService writer;
+    private final Runnable checkpointTrigger;
+    private final int checkpointEvents;
+
+    // Guards the pending buffer, the event count, the sequence and the generation, held only for memory copies
+    private final Object bufferLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(MAX_RECORD_SIZE * 256);
+    // Position in pending where the current generation ends, or -1
+    private int rotationBoundary = -1;
+    private int eventsSinceRotation;
+    private boolean checkpointRequested;
+
+    private long generation;
+    // Of the last appended event
+    private long sequence;
+
+    // Guards the channel, held during disk I/O
+    private final Object ioLock = new Object();
+    private FileChannel channel;
+
+    /**
+     * @param checkpointTrigger called once when {@code checkpointEvents} events were
+     *                          logged since the last rotation, expected to start a save
+     * @param checkpointEvents  events after which a save is asked for, 0 = never
+     */
+    ProgressionLog(Path folder, HytaleLogger logger, Runnable checkpointTrigger, int checkpointEvents) {
+        this.folder = folder;
+        this.logger = logger;
+        this.checkpointTrigger = checkpointTrigger;
+        this.checkpointEvents = checkpointEvents;
+        this.writer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    // ========== Recovery ==========
+
+    /**
+     * Replays every generation in order, and makes later appends continue after the
+     * last sequence found. A torn record at the end of a file, left by a crash
+     * mid-write, ends the replay of that file.
+     *
+     * @return the generations found on disk
+     */
+    List<Long> replay(EventVisitor visitor) throws IOException {
+        List<Long> generations = listGenerations();
+        JobType[] types = JobType.values();
+        long lastSequence = 0;
+        for (long gen : generations) {
+            Path file = logFile(gen);
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.at(Level.WARNING).log("Skipping unreadable progression log " + file);
+                continue;
+            }
+            lastSequence = Math.max(lastSequence, buffer.getLong());
+            while (buffer.hasRemaining()) {
+                int length = buffer.get() & 0xFF;
+                if (length == 0 || length > buffer.remaining())
+                    break; // Zero-filled or torn tail
+                ByteBuffer record = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                try {
+                    UUID uuid = new UUID(record.getLong(), record.getLong());
+                    int ordinal = VarInts.getVarInt(record);
+                    long xp = VarInts.getSignedVarLong(record);
+                    long money = VarInts.getSignedVarLong(record);
+                    long timestamp = VarInts.getVarLong(record);
+                    long eventSequence = VarInts.getVarLong(record);
+                    lastSequence = Math.max(lastSequence, eventSequence);
+                    if (ordinal < types.length)
+                        visitor.accept(eventSequence, uuid, types[ordinal], xp, money, timestamp);
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    break;
+                }
+            }
+        }
+        synchronized (bufferLock) {
+            sequence = lastSequence;
+        }
+        return generations;
+    }
+
+    /**
+     * Starts a generation after every existing one.
+     */
+    void open(List<Long> existingGenerations) throws IOException {
+        Files.createDirectories(folder);
+        long first = existingGenerations.isEmpty() ? 1 : existingGenerations.get(existingGenerations.size() - 1) + 1;
+        synchronized (bufferLock) {
+            generation = first;
+        }
+        synchronized (ioLock) {
+            channel = openGeneration(first);
+        }
+        writer.scheduleWithFixedDelay(this::commitQuietly, COMMIT_INTERVAL_MILLIS, COMMIT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // ========== Appends (memory only) ==========
+
+    void append(UUID uuid, JobType type, long xp, long money, long timestamp) {
+        boolean trigger = false;
+        synchronized (bufferLock) {
+            if (pending.remaining() < MAX_RECORD_SIZE) {
+                ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            int start = pending.position();
+            pending.put((byte) 0);
+            pending.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+            VarInts.putVarInt(pending, type.ordinal());
+            VarInts.putSignedVarLong(pending, xp);
+            VarInts.putSignedVarLong(pending, money);
+            VarInts.putVarLong(pending, timestamp);
+            VarInts.putVarLong(pending, ++sequence);
+            pending.put(start, (byte) (pending.position() - start - 1));
+
+            eventsSinceRotation++;
+            if (checkpointEvents > 0 && eventsSinceRotation >= checkpointEvents && !checkpointRequested) {
+                checkpointRequested = true;
+                trigger = true;
+            }
+        }
+        if (trigger)
+            checkpointTrigger.run();
+    }
+
+    /**
+     * Asks for a save now, for changes the log cannot express.
+     */
+    void requestCheckpoint() {
+        synchronized (bufferLock) {
+            if (checkpointRequested)
+                return;
+            checkpointRequested = true;
+        }
+        checkpointTrigger.run();
+    }
+
+    /**
+     * @return the sequence of the last appended event
+     */
+    long lastSequence() {
+        synchronized (bufferLock) {
+            return sequence;
+        }
+    }
+
+    // ========== Commit and checkpoint ==========
+
+    /**
+     * Ends the current generation. Everything appended before this call belongs to
+     * the returned generation, everything after to the next one. Memory only; the
+     * switch happens on the next {@link #commit()}.
+     */
+    long rotate() {
+        synchronized (bufferLock) {
+            rotationBoundary = pending.position();
+            eventsSinceRotation = 0;
+            checkpointRequested = false;
+            return generation;
+        }
+    }
+
+    /**
+     * Writes and forces everything appended so far. If a write fails, what was not
+     * made durable is cut off the file and queued again, in front of anything
+     * appended meanwhile, for the next commit.
+     */
+    void commit() throws IOException {
+        synchronized (ioLock) {
+            if (channel == null)
+                return;
+
+            ByteBuffer records;
+            int boundary;
+            long nextGeneration;
+            synchronized (bufferLock) {
+                pending.flip();
+                records = ByteBuffer.allocate(pending.remaining());
+                records.put(pending).flip();
+                pending.clear();
+
+                boundary = rotationBoundary;
+                rotationBoundary = -1;
+                // Switched here, so a rotation racing this commit returns the generation it really ends
+                if (boundary >= 0)
+                    generation++;
+                nextGeneration = generation;
+            }
+
+            try {
+                if (boundary >= 0) {
+                    writeDurably(channel, records.duplicate().limit(boundary));
+                    records.position(boundary);
+                    // The next generation is open before this one is left, a failure keeps the current one
+                    FileChannel previous = channel;
+                    channel = openGeneration(nextGeneration);
+                    boundary = -1;
+                    previous.close();
+                }
+
+                if (records.hasRemaining()) {
+                    writeDurably(channel, records);
+                }
+            } catch (IOException | RuntimeException e) {
+                requeue(records, boundary);
+                throw e;
+            }
+        }
+    }
+
+    // Puts back what a failed commit did not write, before anything appended since
+    private void requeue(ByteBuffer records, int boundary) {
+        synchronized (bufferLock) {
+            int failed = records.remaining();
+            if (failed == 0 && boundary < 0)
+                return;
+            // The generation given out by the drain stays taken: a rotation since then
+            // returned it, so the records up to that rotation are merged into the current
+            // file and the next switch skips to a later generation
+            if (rotationBoundary >= 0) {
+                rotationBoundary += failed;
+            } else if (boundary >= 0) {
+                rotationBoundary = boundary - records.position();
+            }
+            pending.flip();
+            ByteBuffer merged = ByteBuffer.allocate(
+                    Math.max(pending.capacity(), failed + pending.remaining() + MAX_RECORD_SIZE * 256));
+            merged.put(records).put(pending);
+            pending = merged;
+        }
+    }
+
+    /**
+     * Deletes every generation up to and including the given one.
+     */
+    void deleteUpTo(long lastGeneration) throws IOException {
+        for (long gen : listGenerations()) {
+            if (gen <= lastGeneration) {
+                Files.deleteIfExists(logFile(gen));
+            }
+        }
+    }
+
+    void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commitQuietly();
+        synchronized (ioLock) {
+            try {
+                if (channel != null)
+                    channel.close();
+            } catch (IOException e) {
+                logger.at(Level.WARNING).withCause(e).log("Failed to close progression log.");
+            }
+            channel = null;
+        }
+    }
+
+    private void commitQuietly() {
+        try {
+            commit();
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to commit progression log.");
+        }
+    }
+
+    // ========== Files ==========
+
+    // A generation not opened yet holds nothing valid, a leftover of a failed attempt is overwritten.
+    // The header is forced, older files may be deleted once it holds the last sequence.
+    private FileChannel openGeneration(long gen) throws IOException {
+        long lastSequence = lastSequence();
+        FileChannel file = FileChannel.open(logFile(gen), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeFully(file, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(lastSequence)
+                    .flip());
+            file.force(false);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        return file;
+    }
+
+    private List<Long> listGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        if (!Files.isDirectory(folder))
+            return generations;
+        try (Stream<Path> files = Files.list(folder)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.startsWith("progress.") && name.endsWith(".log")) {
+                    try {
+                        generations.add(Long.parseLong(name.substring(9, name.length() - 4)));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            });
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path logFile(long gen) {
+        return folder.resolve("progress." + gen + ".log");
+    }
+
+    // Writes and forces, or cuts the file back to where it was so a retry does not follow a torn write
+    private static void writeDurably(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long start = channel.position();
+        int from = buffer.position();
+        try {
+            writeFully(channel, buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            buffer.position(from);
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @FunctionalInterface
+    interface EventVisitor {
+        void accept(long sequence, UUID uuid, JobType type, long xp, long money, long timestamp);
+    }
+}
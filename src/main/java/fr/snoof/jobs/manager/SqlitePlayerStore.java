@@ -0,0 +1,322 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.model.JobData;
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Profiles in an embedded SQLite database: one row per player and one per player
+ * and job. Saves are batched upserts in a single transaction.
+ */
+class SqlitePlayerStore implements PlayerStore {
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS players ("
+                    + "uuid TEXT PRIMARY KEY, name TEXT, last_seen INTEGER NOT NULL, "
+                    + "log_sequence INTEGER NOT NULL DEFAULT 0)",
+            "CREATE TABLE IF NOT EXISTS player_jobs ("
+                    + "uuid TEXT NOT NULL, job TEXT NOT NULL, joined INTEGER NOT NULL, level INTEGER NOT NULL, "
+                    + "experience INTEGER NOT NULL, total_experience INTEGER NOT NULL, "
+                    + "total_earnings INTEGER NOT NULL, actions INTEGER NOT NULL, last_action INTEGER NOT NULL, "
+                    + "PRIMARY KEY (uuid, job))",
+            // Served the top query, leaderboards are kept in memory now
+            "DROP INDEX IF EXISTS player_jobs_top",
+            "CREATE INDEX IF NOT EXISTS players_name ON players (name COLLATE NOCASE)",
+            "CREATE INDEX IF NOT EXISTS players_last_seen ON players (last_seen)"
+    };
+    private static final String UPSERT_PLAYER = "INSERT INTO players (uuid, name, last_seen, log_sequence) "
+            + "VALUES (?, ?, ?, ?) ON CONFLICT (uuid) DO UPDATE SET name = excluded.name, "
+            + "last_seen = excluded.last_seen, log_sequence = excluded.log_sequence";
+    private static final String SELECT_PLAYERS = "SELECT uuid, name, last_seen, log_sequence FROM players";
+    private static final String UPSERT_JOB = "INSERT INTO player_jobs (uuid, job, joined, level, experience, "
+            + "total_experience, total_earnings, actions, last_action) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON CONFLICT (uuid, job) DO UPDATE SET joined = excluded.joined, level = excluded.level, "
+            + "experience = excluded.experience, total_experience = excluded.total_experience, "
+            + "total_earnings = excluded.total_earnings, actions = excluded.actions, "
+            + "last_action = excluded.last_action";
+    private static final String SELECT_JOBS = "SELECT uuid, job, joined, level, experience, total_experience, "
+            + "total_earnings, actions, last_action FROM player_jobs";
+
+    private final Path file;
+    private Connection connection;
+
+    SqlitePlayerStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return whether the SQLite JDBC driver is on the classpath
+     */
+    static boolean isAvailable() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        try {
+            Files.createDirectories(file.getParent());
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.toAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+                // Databases created before the column
+                if (!hasColumn(statement, "players", "log_sequence"))
+                    statement.execute("ALTER TABLE players ADD COLUMN log_sequence INTEGER NOT NULL DEFAULT 0");
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot open " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isEmpty() throws IOException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rows = statement.executeQuery("SELECT 1 FROM players LIMIT 1")) {
+            return !rows.next();
+        } catch (SQLException e) {
+            throw new IOException("Cannot query players", e);
+        }
+    }
+
+    @Override
+    public synchronized Map<UUID, JobPlayer> loadAll() throws IOException {
+        Map<UUID, JobPlayer> loaded = new HashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet rows = statement.executeQuery(SELECT_PLAYERS)) {
+                while (rows.next()) {
+                    JobPlayer player = readPlayer(rows);
+                    loaded.put(player.getUuid(), player);
+                }
+            }
+            try (ResultSet rows = statement.executeQuery(SELECT_JOBS)) {
+                while (rows.next()) {
+                    JobPlayer player = loaded.get(UUID.fromString(rows.getString(1)));
+                    if (player != null)
+                        readJob(player, rows);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot load players", e);
+        }
+        return loaded;
+    }
+
+    @Override
+    public synchronized JobPlayer load(UUID uuid) throws IOException {
+        try (PreparedStatement select = connection.prepareStatement(
+                SELECT_PLAYERS + " WHERE uuid = ?");
+                PreparedStatement selectJobs = connection.prepareStatement(SELECT_JOBS + " WHERE uuid = ?")) {
+            select.setString(1, uuid.toString());
+            JobPlayer player;
+            try (ResultSet rows = select.executeQuery()) {
+                if (!rows.next())
+                    return null;
+                player = readPlayer(rows);
+            }
+            selectJobs.setString(1, uuid.toString());
+            try (ResultSet rows = selectJobs.executeQuery()) {
+                while (rows.next()) {
+                    readJob(player, rows);
+                }
+            }
+            return player;
+        } catch (SQLException e) {
+            throw new IOException("Cannot load player " + uuid, e);
+        }
+    }
+
+    @Override
+    public synchronized long saveBatch(Collection<JobPlayer> players) throws IOException {
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsertPlayer = connection.prepareStatement(UPSERT_PLAYER);
+                    PreparedStatement upsertJob = connection.prepareStatement(UPSERT_JOB)) {
+                for (JobPlayer player : players) {
+                    String uuid = player.getUuid().toString();
+                    upsertPlayer.setString(1, uuid);
+                    upsertPlayer.setString(2, player.getName());
+                    upsertPlayer.setLong(3, player.getLastSeen());
+                    upsertPlayer.setLong(4, player.getLogSequence());
+                    upsertPlayer.addBatch();
+                    for (JobType type : JobType.values()) {
+                        JobData data = player.getJobData(type);
+                        upsertJob.setString(1, uuid);
+                        upsertJob.setString(2, type.name());
+                        upsertJob.setInt(3, player.hasJoinedJob(type) ? 1 : 0);
+                        upsertJob.setInt(4, data.getLevel());
+                        upsertJob.setLong(5, data.getExperience());
+                        upsertJob.setLong(6, data.getTotalExperience());
+                        upsertJob.setLong(7, data.getTotalEarnings());
+                        upsertJob.setInt(8, data.getActionsCount());
+                        upsertJob.setLong(9, data.getLastActionTime());
+                        upsertJob.addBatch();
+                    }
+                }
+                upsertPlayer.executeBatch();
+                upsertJob.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot save players", e);
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized UUID findByName(String name) throws IOException {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT uuid FROM players WHERE name = ? COLLATE NOCASE ORDER BY last_seen DESC LIMIT 1")) {
+            select.setString(1, name);
+            try (ResultSet rows = select.executeQuery()) {
+                return rows.next() ? UUID.fromString(rows.getString(1)) : null;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot look up player " + name, e);
+        }
+    }
+
+    @Override
+    public synchronized List<UUID> findInactive(long seenBefore) throws IOException {
+        List<UUID> inactive = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT uuid FROM players WHERE last_seen < ?")) {
+            select.setLong(1, seenBefore);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    inactive.add(UUID.fromString(rows.getString(1)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot query inactive players", e);
+        }
+        return inactive;
+    }
+
+    @Override
+    public synchronized void forEachStanding(Consumer<JobStanding> visitor) throws IOException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rows = statement.executeQuery("SELECT j.uuid, p.name, j.job, j.level, j.total_experience "
+                        + "FROM player_jobs j JOIN players p ON p.uuid = j.uuid WHERE j.joined != 0")) {
+            while (rows.next()) {
+                JobType type;
+                try {
+                    type = JobType.valueOf(rows.getString(3));
+                } catch (IllegalArgumentException e) {
+                    // A job removed since the row was written
+                    continue;
+                }
+                visitor.accept(new JobStanding(UUID.fromString(rows.getString(1)), rows.getString(2), type,
+                        rows.getInt(4), rows.getLong(5)));
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot load job standings", e);
+        }
+    }
+
+    @Override
+    public synchronized void delete(Collection<UUID> uuids) throws IOException {
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement deletePlayer = connection.prepareStatement("DELETE FROM players WHERE uuid = ?");
+                    PreparedStatement deleteJobs = connection.prepareStatement(
+                            "DELETE FROM player_jobs WHERE uuid = ?")) {
+                for (UUID uuid : uuids) {
+                    deletePlayer.setString(1, uuid.toString());
+                    deletePlayer.addBatch();
+                    deleteJobs.setString(1, uuid.toString());
+                    deleteJobs.addBatch();
+                }
+                deletePlayer.executeBatch();
+                deleteJobs.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot delete players", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (connection == null)
+            return;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException("Cannot close " + file, e);
+        } finally {
+            connection = null;
+        }
+    }
+
+    private static JobPlayer readPlayer(ResultSet rows) throws SQLException {
+        JobPlayer player = new JobPlayer();
+        player.setUuid(UUID.fromString(rows.getString(1)));
+        player.setName(rows.getString(2));
+        player.setLastSeen(rows.getLong(3));
+        player.setLogSequence(rows.getLong(4));
+        return player;
+    }
+
+    private static boolean hasColumn(Statement statement, String table, String column) throws SQLException {
+        try (ResultSet rows = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rows.next()) {
+                if (column.equalsIgnoreCase(rows.getString("name")))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static void readJob(JobPlayer player, ResultSet rows) throws SQLException {
+        JobType type;
+        try {
+            type = JobType.valueOf(rows.getString(2));
+        } catch (IllegalArgumentException e) {
+            // A job removed since the row was written
+            return;
+        }
+        if (rows.getInt(3) != 0)
+            player.joinJob(type);
+        JobData data = player.getJobData(type);
+        data.setLevel(rows.getInt(4));
+        data.setExperience(rows.getLong(5));
+        data.setTotalExperience(rows.getLong(6));
+        data.setTotalEarnings(rows.getLong(7));
+        data.setActionsCount(rows.getInt(8));
+        data.setLastActionTime(rows.getLong(9));
+    }
+}
@@ -26,6 +26,15 @@ public class JobData {
         this.lastActionTime = 0;
     }
 
+    public JobData(JobData other) {
+        this.level = other.level;
+        this.experience = other.experience;
+        this.totalExperience = other.totalExperience;
+        this.totalEarnings = other.totalEarnings;
+        this.actionsCount = other.actionsCount;
+        this.lastActionTime = other.lastActionTime;
+    }
+
     public int getLevel() {
         return level;
     }
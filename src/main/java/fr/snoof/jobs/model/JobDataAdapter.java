@@ -0,0 +1,55 @@
+package fr.snoof.jobs.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Streaming Gson adapter for {@link JobData}, field for field compatible with the
+ * reflective format. Unknown fields are skipped.
+ */
+public class JobDataAdapter extends TypeAdapter<JobData> {
+
+    @Override
+    public void write(JsonWriter out, JobData data) throws IOException {
+        if (data == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("level").value(data.getLevel());
+        out.name("experience").value(data.getExperience());
+        out.name("totalExperience").value(data.getTotalExperience());
+        out.name("totalEarnings").value(data.getTotalEarnings());
+        out.name("actionsCount").value(data.getActionsCount());
+        out.name("lastActionTime").value(data.getLastActionTime());
+        out.endObject();
+    }
+
+    @Override
+    public JobData read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        // Fields missing from the file keep the defaults of the no-arg constructor, like reflection did
+        JobData data = new JobData();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "level" -> data.setLevel(in.nextInt());
+                case "experience" -> data.setExperience(in.nextLong());
+                case "totalExperience" -> data.setTotalExperience(in.nextLong());
+                case "totalEarnings" -> data.setTotalEarnings(in.nextLong());
+                case "actionsCount" -> data.setActionsCount(in.nextInt());
+                case "lastActionTime" -> data.setLastActionTime(in.nextLong());
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return data;
+    }
+}
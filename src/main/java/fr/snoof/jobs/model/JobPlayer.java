@@ -12,6 +12,8 @@ public class JobPlayer {
     private Map<JobType, JobData> jobs;
     private Set<JobType> joinedJobs;
     private long lastSeen;
+    // Sequence of the last progression log event included, so a replay skips it
+    private long logSequence;
 
     public JobPlayer(UUID uuid, String name) {
         this.uuid = uuid;
@@ -32,6 +34,26 @@ public class JobPlayer {
         this.joinedJobs = EnumSet.noneOf(JobType.class);
     }
 
+    /**
+     * Deep copy, for saving without holding on to the live object.
+     */
+    public JobPlayer copy() {
+        JobPlayer copy = new JobPlayer();
+        copy.uuid = uuid;
+        copy.name = name;
+        copy.lastSeen = lastSeen;
+        copy.logSequence = logSequence;
+        if (jobs != null) {
+            for (Map.Entry<JobType, JobData> entry : jobs.entrySet()) {
+                copy.jobs.put(entry.getKey(), new JobData(entry.getValue()));
+            }
+        }
+        if (joinedJobs != null) {
+            copy.joinedJobs.addAll(joinedJobs);
+        }
+        return copy;
+    }
+
     // ========== Job Join/Leave System ==========
 
     public boolean hasJoinedJob(JobType type) {
@@ -129,6 +151,14 @@ public class JobPlayer {
         this.lastSeen = lastSeen;
     }
 
+    public long getLogSequence() {
+        return logSequence;
+    }
+
+    public void setLogSequence(long logSequence) {
+        this.logSequence = logSequence;
+    }
+
     public void updateLastSeen() {
         this.lastSeen = System.currentTimeMillis();
     }
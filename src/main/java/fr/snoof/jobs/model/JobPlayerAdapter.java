@@ -0,0 +1,121 @@
+package fr.snoof.jobs.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Streaming Gson adapter for {@link JobPlayer}, field for field compatible with
+ * the reflective format. Unknown fields and jobs are skipped.
+ */
+public class JobPlayerAdapter extends TypeAdapter<JobPlayer> {
+    private final JobDataAdapter jobDataAdapter = new JobDataAdapter();
+
+    @Override
+    public void write(JsonWriter out, JobPlayer player) throws IOException {
+        if (player == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        if (player.getUuid() != null)
+            out.name("uuid").value(player.getUuid().toString());
+        if (player.getName() != null)
+            out.name("name").value(player.getName());
+        if (player.getJobs() != null) {
+            out.name("jobs").beginObject();
+            for (Map.Entry<JobType, JobData> entry : player.getJobs().entrySet()) {
+                out.name(entry.getKey().name());
+                jobDataAdapter.write(out, entry.getValue());
+            }
+            out.endObject();
+        }
+        out.name("joinedJobs").beginArray();
+        for (JobType type : player.getJoinedJobs()) {
+            out.value(type.name());
+        }
+        out.endArray();
+        out.name("lastSeen").value(player.getLastSeen());
+        out.name("logSequence").value(player.getLogSequence());
+        out.endObject();
+    }
+
+    @Override
+    public JobPlayer read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        JobPlayer player = new JobPlayer();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "uuid" -> player.setUuid(in.peek() == JsonToken.NULL ? skipNull(in) : parseUuid(in.nextString()));
+                case "name" -> player.setName(in.peek() == JsonToken.NULL ? skipNull(in) : in.nextString());
+                case "jobs" -> readJobs(in, player);
+                case "joinedJobs" -> readJoinedJobs(in, player);
+                case "lastSeen" -> player.setLastSeen(in.nextLong());
+                case "logSequence" -> player.setLogSequence(in.nextLong());
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return player;
+    }
+
+    private void readJobs(JsonReader in, JobPlayer player) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            JobType type = jobType(in.nextName());
+            JobData data = jobDataAdapter.read(in);
+            if (type != null && data != null)
+                player.getJobs().put(type, data);
+        }
+        in.endObject();
+    }
+
+    private static void readJoinedJobs(JsonReader in, JobPlayer player) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        in.beginArray();
+        while (in.hasNext()) {
+            JobType type = in.peek() == JsonToken.NULL ? skipNull(in) : jobType(in.nextString());
+            if (type != null)
+                player.joinJob(type);
+        }
+        in.endArray();
+    }
+
+    private static JobType jobType(String name) {
+        try {
+            return JobType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            // A job removed since the profile was written
+            return null;
+        }
+    }
+
+    private static UUID parseUuid(String value) throws IOException {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid UUID " + value, e);
+        }
+    }
+
+    private static <T> T skipNull(JsonReader in) throws IOException {
+        in.nextNull();
+        return null;
+    }
+}
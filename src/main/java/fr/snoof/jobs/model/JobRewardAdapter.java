@@ -0,0 +1,46 @@
+package fr.snoof.jobs.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Streaming Gson adapter for {@link JobReward}, field for field compatible with
+ * the reflective format. Unknown fields are skipped.
+ */
+public class JobRewardAdapter extends TypeAdapter<JobReward> {
+
+    @Override
+    public void write(JsonWriter out, JobReward reward) throws IOException {
+        if (reward == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("xp").value(reward.getXp());
+        out.name("money").value(reward.getMoney());
+        out.endObject();
+    }
+
+    @Override
+    public JobReward read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        JobReward reward = new JobReward();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "xp" -> reward.setXp(in.nextLong());
+                case "money" -> reward.setMoney(in.nextDouble());
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return reward;
+    }
+}
@@ -0,0 +1,6 @@
+package fr.snoof.jobs.model;
+
+import java.util.UUID;
+
+public record PlacedBlock(UUID placer, String blockId) {
+}
@@ -96,7 +96,8 @@ public class JobsMainPage extends InteractiveCustomUIPage<JobsMainPage.JobsGuiDa
                 PlayerRef pRef = playerRef;
 
                 if (action.equals("Join")) {
-                    if (jobManager.assignJob(pRef, jobName)) {
+                    JobManager.JoinResult result = jobManager.assignJob(pRef, jobName);
+                    if (result == JobManager.JoinResult.JOINED) {
                         // Close UI and notify
                         this.close();
 
@@ -111,7 +112,7 @@ public class JobsMainPage extends InteractiveCustomUIPage<JobsMainPage.JobsGuiDa
 
                         return;
                     } else {
-                        pRef.sendMessage(MessageUtil.error("Impossible de rejoindre ce job."));
+                        pRef.sendMessage(MessageUtil.error(jobManager.getJoinFailureMessage(result, jobName)));
                     }
                 } else if (action.equals("Leave")) {
                     if (jobManager.removeJob(pRef, jobName)) {
@@ -0,0 +1,86 @@
+package fr.snoof.jobs.util;
+
+/**
+ * Counting Bloom filter over primitive {@code long} keys. Counters make removals
+ * possible; a counter that saturates stays saturated, so the filter never answers
+ * "absent" for a key that was added and not removed.
+ * <p>
+ * Not thread-safe: callers are expected to guard access themselves.
+ */
+public class CountingBloomFilter {
+    private static final int HASHES = 3;
+    private static final int SATURATED = 0xFF;
+    // ~8 counters per key keeps the false positive rate around 3% with 3 hashes
+    private static final int COUNTERS_PER_KEY = 8;
+    private static final int MIN_COUNTERS = 64;
+    private static final int MAX_COUNTERS = 1 << 30;
+
+    private final byte[] counters;
+    private final int mask;
+
+    /**
+     * @param counters number of counters, rounded up to a power of two
+     */
+    public CountingBloomFilter(int counters) {
+        int length = Integer.highestOneBit(Math.max(counters, MIN_COUNTERS) - 1) << 1;
+        this.counters = new byte[length];
+        this.mask = length - 1;
+    }
+
+    /**
+     * Sizes the filter for about {@code expectedKeys} keys.
+     */
+    public static CountingBloomFilter forKeys(int expectedKeys) {
+        return new CountingBloomFilter((int) Math.min(MAX_COUNTERS, (long) COUNTERS_PER_KEY * expectedKeys));
+    }
+
+    /**
+     * Number of keys the filter was sized for, past which it should be rebuilt larger.
+     */
+    public int capacity() {
+        return counters.length / COUNTERS_PER_KEY;
+    }
+
+    public void add(long key) {
+        long hash = hash(key);
+        for (int i = 0; i < HASHES; i++) {
+            int index = index(hash, i);
+            int count = counters[index] & 0xFF;
+            if (count < SATURATED)
+                counters[index] = (byte) (count + 1);
+        }
+    }
+
+    public void remove(long key) {
+        long hash = hash(key);
+        for (int i = 0; i < HASHES; i++) {
+            int index = index(hash, i);
+            int count = counters[index] & 0xFF;
+            // A saturated counter lost track of its real count
+            if (count > 0 && count < SATURATED)
+                counters[index] = (byte) (count - 1);
+        }
+    }
+
+    /**
+     * @return false if the key is definitely absent
+     */
+    public boolean mightContain(long key) {
+        long hash = hash(key);
+        for (int i = 0; i < HASHES; i++) {
+            if (counters[index(hash, i)] == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private int index(long hash, int i) {
+        // Double hashing: h1 + i * h2, with an odd h2 so the probes differ
+        return ((int) hash + i * ((int) (hash >>> 32) | 1)) & mask;
+    }
+
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,213 @@
+package fr.snoof.jobs.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Arithmetic expression compiled once into a tree of nodes, e.g. the XP formula
+ * {@code "100 * level ^ 1.5 + 50"}. Supports {@code + - * / % ^}, parentheses,
+ * named variables and the functions {@code min max pow sqrt abs floor ceil round
+ * log exp}. {@code ^} is right-associative and binds tighter than unary minus.
+ * <p>
+ * Immutable and thread-safe once compiled.
+ */
+public final class Expression {
+    private final String source;
+    private final List<String> variables;
+    private final Node root;
+
+    private Expression(String source, List<String> variables, Node root) {
+        this.source = source;
+        this.variables = variables;
+        this.root = root;
+    }
+
+    /**
+     * @param variables the names the expression may use, given in the same order to {@link #evaluate}
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static Expression compile(String source, String... variables) {
+        if (source == null)
+            throw new IllegalArgumentException("Empty expression");
+        Parser parser = new Parser(source, Arrays.asList(variables));
+        Node root = parser.parseExpression();
+        parser.skipSpaces();
+        if (parser.pos < source.length())
+            throw parser.error("Unexpected '" + source.charAt(parser.pos) + "'");
+        return new Expression(source, List.of(variables), root);
+    }
+
+    public double evaluate(double... values) {
+        if (values.length != variables.size())
+            throw new IllegalArgumentException("Expected " + variables.size() + " values, got " + values.length);
+        return root.evaluate(values);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    @FunctionalInterface
+    private interface Node {
+        double evaluate(double[] values);
+    }
+
+    // ========== Parser ==========
+
+    // Recursive descent, one method per precedence level
+    private static final class Parser {
+        private final String source;
+        private final List<String> variables;
+        private int pos;
+
+        Parser(String source, List<String> variables) {
+            this.source = source;
+            this.variables = variables;
+        }
+
+        // expression := term (('+' | '-') term)*
+        Node parseExpression() {
+            Node left = parseTerm();
+            while (true) {
+                if (accept('+')) {
+                    left = binary(left, parseTerm(), Double::sum);
+                } else if (accept('-')) {
+                    left = binary(left, parseTerm(), (a, b) -> a - b);
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        // term := unary (('*' | '/' | '%') unary)*
+        private Node parseTerm() {
+            Node left = parseUnary();
+            while (true) {
+                if (accept('*')) {
+                    left = binary(left, parseUnary(), (a, b) -> a * b);
+                } else if (accept('/')) {
+                    left = binary(left, parseUnary(), (a, b) -> a / b);
+                } else if (accept('%')) {
+                    left = binary(left, parseUnary(), (a, b) -> a % b);
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        // unary := ('-' | '+') unary | power
+        private Node parseUnary() {
+            if (accept('-')) {
+                Node operand = parseUnary();
+                return values -> -operand.evaluate(values);
+            }
+            if (accept('+'))
+                return parseUnary();
+            return parsePower();
+        }
+
+        // power := primary ('^' unary)?
+        private Node parsePower() {
+            Node base = parsePrimary();
+            if (accept('^'))
+                return binary(base, parseUnary(), Math::pow);
+            return base;
+        }
+
+        // primary := number | variable | function '(' args ')' | '(' expression ')'
+        private Node parsePrimary() {
+            skipSpaces();
+            if (accept('(')) {
+                Node inner = parseExpression();
+                expect(')');
+                return inner;
+            }
+            if (pos >= source.length())
+                throw error("Unexpected end of expression");
+
+            char c = source.charAt(pos);
+            if (Character.isDigit(c) || c == '.')
+                return parseNumber();
+            if (Character.isLetter(c) || c == '_')
+                return parseName();
+            throw error("Unexpected '" + c + "'");
+        }
+
+        private Node parseNumber() {
+            int start = pos;
+            while (pos < source.length() && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.'))
+                pos++;
+            double value;
+            try {
+                value = Double.parseDouble(source.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number '" + source.substring(start, pos) + "'");
+            }
+            return values -> value;
+        }
+
+        private Node parseName() {
+            int start = pos;
+            while (pos < source.length()
+                    && (Character.isLetterOrDigit(source.charAt(pos)) || source.charAt(pos) == '_'))
+                pos++;
+            String name = source.substring(start, pos);
+
+            if (!accept('(')) {
+                int index = variables.indexOf(name);
+                if (index < 0)
+                    throw error("Unknown variable '" + name + "'");
+                return values -> values[index];
+            }
+
+            Node first = parseExpression();
+            Node second = accept(',') ? parseExpression() : null;
+            expect(')');
+            Node function = switch (name) {
+                case "min" -> second != null ? binary(first, second, Math::min) : null;
+                case "max" -> second != null ? binary(first, second, Math::max) : null;
+                case "pow" -> second != null ? binary(first, second, Math::pow) : null;
+                case "sqrt" -> second == null ? values -> Math.sqrt(first.evaluate(values)) : null;
+                case "abs" -> second == null ? values -> Math.abs(first.evaluate(values)) : null;
+                case "floor" -> second == null ? values -> Math.floor(first.evaluate(values)) : null;
+                case "ceil" -> second == null ? values -> Math.ceil(first.evaluate(values)) : null;
+                case "round" -> second == null ? values -> Math.rint(first.evaluate(values)) : null;
+                case "log" -> second == null ? values -> Math.log(first.evaluate(values)) : null;
+                case "exp" -> second == null ? values -> Math.exp(first.evaluate(values)) : null;
+                default -> throw error("Unknown function '" + name + "'");
+            };
+            if (function == null)
+                throw error("Wrong number of arguments for '" + name + "'");
+            return function;
+        }
+
+        private static Node binary(Node left, Node right, DoubleBinaryOperator operator) {
+            return values -> operator.applyAsDouble(left.evaluate(values), right.evaluate(values));
+        }
+
+        private boolean accept(char c) {
+            skipSpaces();
+            if (pos < source.length() && source.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c))
+                throw error("Expected '" + c + "'");
+        }
+
+        void skipSpaces() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos)))
+                pos++;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in \"" + source + "\"");
+        }
+    }
+}
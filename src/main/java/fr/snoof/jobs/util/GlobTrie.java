@@ -0,0 +1,110 @@
+package fr.snoof.jobs.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Glob patterns such as {@code *_log} or {@code ore_?}, compiled into one trie so
+ * an id is matched against all of them in a single pass: {@code *} matches any
+ * run of characters, {@code ?} exactly one. The trie is walked as an automaton,
+ * keeping the set of nodes the id so far can be at.
+ * <p>
+ * When several patterns match, the most specific wins, i.e. the one with the most
+ * literal characters, then the first one added.
+ * <p>
+ * Not thread-safe while patterns are added, immutable afterwards.
+ */
+public final class GlobTrie<T> {
+    private final Node root = new Node();
+    private final List<T> values = new ArrayList<>();
+    private final List<Integer> specificity = new ArrayList<>();
+
+    public static boolean isPattern(String key) {
+        return key.indexOf('*') >= 0 || key.indexOf('?') >= 0;
+    }
+
+    public void add(String pattern, T value) {
+        Node node = root;
+        int literals = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                // Consecutive stars are one star
+                if (!node.loops) {
+                    if (node.star == null)
+                        node.star = new Node();
+                    node = node.star;
+                    node.loops = true;
+                }
+            } else if (c == '?') {
+                if (node.any == null)
+                    node.any = new Node();
+                node = node.any;
+            } else {
+                node = node.children.computeIfAbsent(c, k -> new Node());
+                literals++;
+            }
+        }
+        node.patterns.add(values.size());
+        values.add(value);
+        specificity.add(literals);
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * @return the value of the most specific pattern matching the whole id, or null if none
+     */
+    public T match(String id) {
+        List<Node> current = new ArrayList<>();
+        enter(root, current);
+        List<Node> next = new ArrayList<>();
+        for (int i = 0; i < id.length() && !current.isEmpty(); i++) {
+            char c = id.charAt(i);
+            next.clear();
+            for (Node node : current) {
+                if (node.loops)
+                    enter(node, next);
+                Node child = node.children.get(c);
+                if (child != null)
+                    enter(child, next);
+                if (node.any != null)
+                    enter(node.any, next);
+            }
+            List<Node> swap = current;
+            current = next;
+            next = swap;
+        }
+
+        int best = -1;
+        for (Node node : current) {
+            for (int pattern : node.patterns) {
+                if (best < 0 || specificity.get(pattern) > specificity.get(best)
+                        || (specificity.get(pattern).equals(specificity.get(best)) && pattern < best))
+                    best = pattern;
+            }
+        }
+        return best >= 0 ? values.get(best) : null;
+    }
+
+    // Adds the node and, since a star may match nothing, the star node after it
+    private static void enter(Node node, List<Node> nodes) {
+        if (!nodes.contains(node))
+            nodes.add(node);
+        if (node.star != null && !nodes.contains(node.star))
+            nodes.add(node.star);
+    }
+
+    private static final class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        // Node after a '*', it loops on itself for any character
+        Node star;
+        boolean loops;
+        Node any;
+        final List<Integer> patterns = new ArrayList<>(1);
+    }
+}
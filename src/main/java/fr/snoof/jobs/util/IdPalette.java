@@ -0,0 +1,51 @@
+package fr.snoof.jobs.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary that interns values to dense int ids. Ids are never reused, so an
+ * id handed out once stays valid for the lifetime of the palette.
+ * <p>
+ * Not thread-safe: callers are expected to guard access themselves.
+ */
+public class IdPalette<T> {
+    private final List<T> values = new ArrayList<>();
+    private final Map<T, Integer> ids = new HashMap<>();
+
+    public int idOf(T value) {
+        Integer id = ids.get(value);
+        if (id != null)
+            return id;
+
+        int newId = values.size();
+        values.add(value);
+        ids.put(value, newId);
+        return newId;
+    }
+
+    /**
+     * @return the id of the value, or -1 if it was never interned
+     */
+    public int find(T value) {
+        Integer id = ids.get(value);
+        return id != null ? id : -1;
+    }
+
+    public T get(int id) {
+        if (id < 0 || id >= values.size())
+            return null;
+        return values.get(id);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public void clear() {
+        values.clear();
+        ids.clear();
+    }
+}
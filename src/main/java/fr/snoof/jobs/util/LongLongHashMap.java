@@ -0,0 +1,197 @@
+package fr.snoof.jobs.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive {@code long} keys to primitive
+ * {@code long} values. Uses linear probing with backward-shift deletion, so
+ * there are no tombstones and no boxing on any path.
+ * <p>
+ * Not thread-safe: callers are expected to guard access themselves.
+ */
+public class LongLongHashMap {
+    public static final long NO_VALUE = -1L;
+
+    private static final long FREE_KEY = 0L;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    // The free-key sentinel is a legal key, so it lives outside the table
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size + (hasFreeKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY)
+            return hasFreeKey;
+        return indexOf(key) >= 0;
+    }
+
+    public long get(long key) {
+        if (key == FREE_KEY)
+            return hasFreeKey ? freeKeyValue : NO_VALUE;
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : NO_VALUE;
+    }
+
+    /**
+     * @return the previous value, or {@link #NO_VALUE} if the key was absent
+     */
+    public long put(long key, long value) {
+        if (key == FREE_KEY) {
+            long previous = hasFreeKey ? freeKeyValue : NO_VALUE;
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return previous;
+        }
+
+        int index = mix(key) & mask;
+        while (keys[index] != FREE_KEY) {
+            if (keys[index] == key) {
+                long previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Removes the key in a single probe sequence.
+     *
+     * @return the removed value, or {@link #NO_VALUE} if the key was absent
+     */
+    public long remove(long key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey)
+                return NO_VALUE;
+            hasFreeKey = false;
+            return freeKeyValue;
+        }
+
+        int index = indexOf(key);
+        if (index < 0)
+            return NO_VALUE;
+
+        long previous = values[index];
+        shiftKeys(index);
+        size--;
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        hasFreeKey = false;
+    }
+
+    public void forEach(Consumer consumer) {
+        if (hasFreeKey) {
+            consumer.accept(FREE_KEY, freeKeyValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private int indexOf(long key) {
+        int index = mix(key) & mask;
+        long current;
+        while ((current = keys[index]) != FREE_KEY) {
+            if (current == key)
+                return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Backward-shift deletion: pull following entries of the same cluster into the hole
+    private void shiftKeys(int hole) {
+        int current = hole;
+        while (true) {
+            current = (current + 1) & mask;
+            long key = keys[current];
+            if (key == FREE_KEY) {
+                keys[hole] = FREE_KEY;
+                return;
+            }
+            int ideal = mix(key) & mask;
+            boolean movable = hole <= current
+                    ? (ideal <= hole || ideal > current)
+                    : (ideal <= hole && ideal > current);
+            if (movable) {
+                keys[hole] = key;
+                values[hole] = values[current];
+                hole = current;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int index = mix(key) & mask;
+                while (keys[index] != FREE_KEY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = Math.max(1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int needed = (int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR);
+        return Math.max(16, Integer.highestOneBit(needed - 1) << 1);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(long key, long value);
+    }
+}
@@ -0,0 +1,78 @@
+package fr.snoof.jobs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel: items are hashed into a fixed ring of slots by deadline,
+ * and each {@link #advance} only visits the slots that elapsed since the last
+ * call. Deadlines further away than one turn of the wheel carry a round count.
+ * Items fire at tick granularity and never late, but may fire early.
+ * <p>
+ * Not thread-safe: callers are expected to guard access themselves.
+ */
+public class TimingWheel<T> {
+    private final long tickMillis;
+    private final List<Entry<T>>[] slots;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, int slotCount, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.slots = new List[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    public void schedule(T item, long deadlineMillis) {
+        // Past deadlines fire on the next advance
+        long tick = Math.max(deadlineMillis / tickMillis, currentTick + 1);
+        long ticksAway = tick - currentTick;
+        int slot = (int) (tick % slots.length);
+        slots[slot].add(new Entry<>(item, (ticksAway - 1) / slots.length));
+        size++;
+    }
+
+    /**
+     * Moves the wheel to {@code nowMillis}.
+     *
+     * @return the items whose deadline has passed
+     */
+    public List<T> advance(long nowMillis) {
+        List<T> due = new ArrayList<>();
+        long targetTick = nowMillis / tickMillis;
+        // After a pause longer than a full turn every item fires early, callers re-check their deadlines
+        long steps = Math.min(targetTick - currentTick, slots.length);
+        for (long i = 1; i <= steps; i++) {
+            List<Entry<T>> slot = slots[(int) ((currentTick + i) % slots.length)];
+            slot.removeIf(entry -> {
+                if (entry.rounds > 0 && targetTick - currentTick <= slots.length) {
+                    entry.rounds--;
+                    return false;
+                }
+                due.add(entry.item);
+                return true;
+            });
+        }
+        currentTick = Math.max(currentTick, targetTick);
+        size -= due.size();
+        return due;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        long rounds;
+
+        Entry(T item, long rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+    }
+}
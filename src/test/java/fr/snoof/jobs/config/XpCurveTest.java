@@ -0,0 +1,41 @@
+package fr.snoof.jobs.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class XpCurveTest {
+
+    @Test
+    void levelFromCumulativeXp() {
+        // 100 to reach level 2, 300 for level 3, 600 for level 4
+        XpCurve curve = XpCurve.compile("level * 100", 5);
+        assertEquals(1, curve.getLevel(-5));
+        assertEquals(1, curve.getLevel(0));
+        assertEquals(1, curve.getLevel(99));
+        assertEquals(2, curve.getLevel(100));
+        assertEquals(2, curve.getLevel(299));
+        assertEquals(3, curve.getLevel(300));
+        assertEquals(4, curve.getLevel(600));
+        assertEquals(5, curve.getLevel(1000));
+        assertEquals(5, curve.getLevel(Long.MAX_VALUE));
+    }
+
+    @Test
+    void everyLevelNeedsAtLeastOneXp() {
+        XpCurve curve = XpCurve.compile("0", 4);
+        assertEquals(1, curve.getRequired(1));
+        assertEquals(3, curve.getCumulative(4));
+        assertEquals(4, curve.getLevel(3));
+    }
+
+    @Test
+    void saturatedLevelsAreOutOfReach() {
+        // The cumulative XP overflows from level 5 on
+        XpCurve curve = XpCurve.compile("level * 1000000000000000000", 20);
+        assertEquals(Long.MAX_VALUE, curve.getCumulative(20));
+        assertEquals(4, curve.getLevel(Long.MAX_VALUE));
+        assertEquals(4, curve.getLevel(curve.getCumulative(4)));
+        assertEquals(3, curve.getLevel(curve.getCumulative(4) - 1));
+    }
+}
@@ -0,0 +1,80 @@
+package fr.snoof.jobs.manager;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PlacedBlockJournalTest {
+    private static final HytaleLogger LOGGER = HytaleLogger.forEnclosingClass();
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void replaysCommittedRecords() throws IOException {
+        PlacedBlockJournal journal = new PlacedBlockJournal(folder, LOGGER);
+        journal.open(journal.replay((op, world, position, placer, block, hour) -> {
+        }));
+        journal.appendPalette(PlacedBlockJournal.PALETTE_WORLD, "default");
+        journal.appendPalette(PlacedBlockJournal.PALETTE_BLOCK, null);
+        journal.appendAdd(0, 42, 1, 2, 3);
+        assertEquals(1, journal.rotate());
+        journal.appendRemove(0, 42);
+        journal.close();
+
+        List<String> palette = new ArrayList<>();
+        List<String> records = new ArrayList<>();
+        PlacedBlockJournal reopened = new PlacedBlockJournal(folder, LOGGER);
+        reopened.readPalette((type, value) -> palette.add(type + ":" + value));
+        List<Long> generations = reopened.replay((op, world, position, placer, block, hour) ->
+                records.add(op + ":" + world + ":" + position + ":" + placer + ":" + block + ":" + hour));
+        assertEquals(List.of(1L, 2L), generations);
+        assertEquals(List.of("1:default", "3:null"), palette);
+        assertEquals(List.of("1:0:42:1:2:3", "2:0:42:0:0:0"), records);
+    }
+
+    @Test
+    void tornTailsAreIgnoredAndCutOff() throws IOException {
+        PlacedBlockJournal journal = new PlacedBlockJournal(folder, LOGGER);
+        journal.open(List.of());
+        journal.appendPalette(PlacedBlockJournal.PALETTE_PLACER, "a");
+        journal.appendAdd(0, 1, 0, 0, 0);
+        journal.appendAdd(0, 2, 0, 0, 0);
+        journal.close();
+
+        // A crash in the middle of both appends
+        Path log = folder.resolve("journal.1.log");
+        Files.write(log, new byte[]{PlacedBlockJournal.OP_ADD, 0, 0, 0, 0, 0, 0}, StandardOpenOption.APPEND);
+        Path paletteFile = folder.resolve("palette.dat");
+        long paletteLength = Files.size(paletteFile);
+        Files.write(paletteFile, new byte[]{PlacedBlockJournal.PALETTE_PLACER, 1, 0, 10, 'b'},
+                StandardOpenOption.APPEND);
+
+        List<Long> positions = new ArrayList<>();
+        List<String> palette = new ArrayList<>();
+        PlacedBlockJournal reopened = new PlacedBlockJournal(folder, LOGGER);
+        reopened.readPalette((type, value) -> palette.add(value));
+        List<Long> generations = reopened.replay((op, world, position, placer, block, hour) ->
+                positions.add(position));
+        assertEquals(List.of("a"), palette);
+        assertEquals(List.of(1L, 2L), positions);
+
+        reopened.open(generations);
+        assertEquals(paletteLength, Files.size(paletteFile));
+        reopened.appendPalette(PlacedBlockJournal.PALETTE_PLACER, "c");
+        reopened.close();
+
+        palette.clear();
+        new PlacedBlockJournal(folder, LOGGER).readPalette((type, value) -> palette.add(value));
+        assertEquals(List.of("a", "c"), palette);
+    }
+}
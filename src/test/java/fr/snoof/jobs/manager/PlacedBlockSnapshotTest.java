@@ -0,0 +1,87 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.util.LongLongHashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlacedBlockSnapshotTest {
+    private static final UUID[] PLACERS = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+    private static final String[] BLOCKS = {"Rock_Stone", null, "Wood_Oak_Trunk"};
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void writeThenMap() throws IOException {
+        // Palette ids of the running server, the snapshot renumbers them in first-seen order
+        LongLongHashMap entries = new LongLongHashMap();
+        for (long key = -50; key < 50; key++) {
+            int placer = 10 + (int) Math.floorMod(key, 3);
+            int block = 20 + (int) Math.floorMod(key, 3);
+            entries.put(key * 7, PlacedBlockRegion.encode(placer, block, 1000 + (int) (key + 50)));
+        }
+        Path file = folder.resolve(PlacedBlockSnapshot.fileName(-1, 2));
+        PlacedBlockSnapshot.write(file, "default", entries, id -> PLACERS[id - 10], id -> BLOCKS[id - 20]);
+
+        PlacedBlockSnapshot snapshot = PlacedBlockSnapshot.open(file);
+        try {
+            assertEquals(100, snapshot.size());
+            assertEquals("default", snapshot.world());
+            assertEquals(1000, snapshot.oldestHour());
+            assertEquals(3, snapshot.placers().length);
+            assertEquals(100, Arrays.stream(snapshot.placerCounts()).sum());
+            for (int i = 1; i < snapshot.size(); i++) {
+                assertTrue(snapshot.keyAt(i - 1) < snapshot.keyAt(i));
+            }
+            for (long key = -50; key < 50; key++) {
+                int index = snapshot.find(key * 7);
+                long value = snapshot.valueAt(index);
+                int expected = (int) Math.floorMod(key, 3);
+                assertEquals(PLACERS[expected], snapshot.placers()[PlacedBlockRegion.placerId(value)]);
+                assertEquals(BLOCKS[expected], snapshot.blocks()[PlacedBlockRegion.blockId(value)]);
+                assertEquals(1000 + key + 50, PlacedBlockRegion.hour(value));
+            }
+            assertEquals(-1, snapshot.find(1));
+            assertEquals(-1, snapshot.find(Long.MAX_VALUE));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    void emptyRegion() throws IOException {
+        Path file = folder.resolve(PlacedBlockSnapshot.fileName(0, 0));
+        PlacedBlockSnapshot.write(file, "default", new LongLongHashMap(), id -> null, id -> null);
+        PlacedBlockSnapshot snapshot = PlacedBlockSnapshot.open(file);
+        try {
+            assertEquals(0, snapshot.size());
+            assertEquals(-1, snapshot.find(0));
+            assertArrayEquals(new UUID[0], snapshot.placers());
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        LongLongHashMap entries = new LongLongHashMap();
+        entries.put(1, PlacedBlockRegion.encode(0, 0, 0));
+        entries.put(2, PlacedBlockRegion.encode(0, 0, 0));
+        Path file = folder.resolve(PlacedBlockSnapshot.fileName(0, 0));
+        PlacedBlockSnapshot.write(file, "default", entries, id -> PLACERS[0], id -> BLOCKS[0]);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - Long.BYTES));
+        assertThrows(IOException.class, () -> PlacedBlockSnapshot.open(file));
+    }
+}
@@ -0,0 +1,68 @@
+package fr.snoof.jobs.manager;
+
+import fr.snoof.jobs.model.JobData;
+import fr.snoof.jobs.model.JobPlayer;
+import fr.snoof.jobs.model.JobType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerCodecTest {
+
+    @Test
+    void roundTrip() {
+        JobPlayer player = new JobPlayer(UUID.randomUUID(), "Snoof é");
+        player.setLastSeen(1_700_000_000_000L);
+        player.setLogSequence(123_456);
+        player.joinJob(JobType.MINER);
+        player.joinJob(JobType.FARMER);
+        JobData miner = player.getJobData(JobType.MINER);
+        miner.setLevel(42);
+        miner.setExperience(-5);
+        miner.setTotalExperience(Long.MAX_VALUE);
+        miner.setTotalEarnings(-1_000);
+        miner.setActionsCount(Integer.MAX_VALUE);
+        miner.setLastActionTime(1_700_000_000_001L);
+
+        JobPlayer decoded = PlayerCodec.decode(PlayerCodec.encode(player));
+        assertEquals(player.getUuid(), decoded.getUuid());
+        assertEquals(player.getName(), decoded.getName());
+        assertEquals(player.getLastSeen(), decoded.getLastSeen());
+        assertEquals(player.getLogSequence(), decoded.getLogSequence());
+        assertEquals(player.getJoinedJobs(), decoded.getJoinedJobs());
+        JobData data = decoded.getJobs().get(JobType.MINER);
+        assertEquals(42, data.getLevel());
+        assertEquals(-5, data.getExperience());
+        assertEquals(Long.MAX_VALUE, data.getTotalExperience());
+        assertEquals(-1_000, data.getTotalEarnings());
+        assertEquals(Integer.MAX_VALUE, data.getActionsCount());
+        assertEquals(1_700_000_000_001L, data.getLastActionTime());
+        // Untouched jobs are not written
+        assertNull(decoded.getJobs().get(JobType.FARMER));
+    }
+
+    @Test
+    void nullName() {
+        JobPlayer player = new JobPlayer(UUID.randomUUID(), null);
+        JobPlayer decoded = PlayerCodec.decode(PlayerCodec.encode(player));
+        assertNull(decoded.getName());
+        assertTrue(decoded.getJoinedJobs().isEmpty());
+    }
+
+    @Test
+    void rejectsTruncatedAndForeignBytes() {
+        JobPlayer player = new JobPlayer(UUID.randomUUID(), "Snoof");
+        player.getJobData(JobType.HUNTER).setLevel(3);
+        byte[] bytes = PlayerCodec.encode(player);
+        assertThrows(IllegalArgumentException.class,
+                () -> PlayerCodec.decode(Arrays.copyOf(bytes, bytes.length - 1)));
+        bytes[0] = '{';
+        assertThrows(IllegalArgumentException.class, () -> PlayerCodec.decode(bytes));
+    }
+}
@@ -0,0 +1,97 @@
+package fr.snoof.jobs.manager;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import fr.snoof.jobs.model.JobType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ProgressionLogTest {
+    private static final HytaleLogger LOGGER = HytaleLogger.forEnclosingClass();
+    private static final UUID PLAYER = UUID.randomUUID();
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void replaysCommittedEvents() throws IOException {
+        ProgressionLog log = new ProgressionLog(folder, LOGGER, () -> {
+        }, 0);
+        log.open(log.replay((sequence, uuid, type, xp, money, timestamp) -> {
+        }));
+        log.append(PLAYER, JobType.MINER, 10, -5, 1000);
+        assertEquals(1, log.rotate());
+        log.append(PLAYER, JobType.FARMER, 20, 0, 2000);
+        log.close();
+
+        List<String> events = new ArrayList<>();
+        ProgressionLog reopened = new ProgressionLog(folder, LOGGER, () -> {
+        }, 0);
+        List<Long> generations = reopened.replay((sequence, uuid, type, xp, money, timestamp) ->
+                events.add(sequence + ":" + uuid.equals(PLAYER) + ":" + type + ":" + xp + ":" + money + ":"
+                        + timestamp));
+        assertEquals(List.of(1L, 2L), generations);
+        assertEquals(List.of("1:true:MINER:10:-5:1000", "2:true:FARMER:20:0:2000"), events);
+        assertEquals(2, reopened.lastSequence());
+    }
+
+    @Test
+    void tornTailEndsTheReplay() throws IOException {
+        ProgressionLog log = new ProgressionLog(folder, LOGGER, () -> {
+        }, 0);
+        log.open(List.of());
+        log.append(PLAYER, JobType.MINER, 10, 0, 1000);
+        log.append(PLAYER, JobType.MINER, 11, 0, 1001);
+        log.close();
+
+        // A crash in the middle of the third record
+        Files.write(folder.resolve("progress.1.log"), new byte[]{30, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        List<Long> xp = new ArrayList<>();
+        ProgressionLog reopened = new ProgressionLog(folder, LOGGER, () -> {
+        }, 0);
+        List<Long> generations = reopened.replay((sequence, uuid, type, amount, money, timestamp) ->
+                xp.add(amount));
+        assertEquals(List.of(10L, 11L), xp);
+        assertEquals(2, reopened.lastSequence());
+
+        // Later events go to a new generation and carry on the sequence
+        reopened.open(generations);
+        reopened.append(PLAYER, JobType.MINER, 12, 0, 1002);
+        reopened.close();
+        List<Long> sequences = new ArrayList<>();
+        new ProgressionLog(folder, LOGGER, () -> {
+        }, 0).replay((sequence, uuid, type, amount, money, timestamp) -> sequences.add(sequence));
+        assertEquals(List.of(1L, 2L, 3L), sequences);
+    }
+
+    @Test
+    void sequenceSurvivesDeletedGenerations() throws IOException {
+        ProgressionLog log = new ProgressionLog(folder, LOGGER, () -> {
+        }, 0);
+        log.open(List.of());
+        log.append(PLAYER, JobType.MINER, 10, 0, 1000);
+        long last = log.rotate();
+        log.commit();
+        log.deleteUpTo(last);
+        log.close();
+
+        ProgressionLog reopened = new ProgressionLog(folder, LOGGER, () -> {
+        }, 0);
+        AtomicInteger events = new AtomicInteger();
+        reopened.replay((sequence, uuid, type, xp, money, timestamp) -> events.incrementAndGet());
+        assertEquals(0, events.get());
+        // The header of the next generation holds the last sequence
+        assertEquals(1, reopened.lastSequence());
+    }
+}
@@ -0,0 +1,39 @@
+package fr.snoof.jobs.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpressionTest {
+
+    private static double eval(String source) {
+        return Expression.compile(source).evaluate();
+    }
+
+    @Test
+    void precedence() {
+        assertEquals(14, eval("2 + 3 * 4"));
+        assertEquals(20, eval("(2 + 3) * 4"));
+        assertEquals(1, eval("7 - 4 - 2"));
+        assertEquals(2, eval("16 / 4 / 2"));
+        assertEquals(19, eval("3 + 2 ^ 4"));
+        // Power is right-associative and binds tighter than unary minus
+        assertEquals(512, eval("2 ^ 3 ^ 2"));
+        assertEquals(-4, eval("-2 ^ 2"));
+        assertEquals(4, eval("(-2) ^ 2"));
+    }
+
+    @Test
+    void variables() {
+        Expression expression = Expression.compile("level * 100 + maxLevel", "level", "maxLevel");
+        assertEquals(350, expression.evaluate(3, 50));
+    }
+
+    @Test
+    void malformed() {
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("2 +"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("(2"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("level", "x"));
+    }
+}
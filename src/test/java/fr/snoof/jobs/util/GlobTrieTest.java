@@ -0,0 +1,42 @@
+package fr.snoof.jobs.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GlobTrieTest {
+
+    @Test
+    void wildcards() {
+        GlobTrie<String> trie = new GlobTrie<>();
+        trie.add("*_log", "log");
+        trie.add("ore_?", "ore");
+        assertEquals("log", trie.match("oak_log"));
+        assertEquals("log", trie.match("_log"));
+        assertEquals("ore", trie.match("ore_1"));
+        assertNull(trie.match("ore_12"));
+        assertNull(trie.match("oak_logs"));
+    }
+
+    @Test
+    void mostLiteralCharactersWin() {
+        GlobTrie<String> trie = new GlobTrie<>();
+        trie.add("*", "any");
+        trie.add("*_log", "log");
+        trie.add("oak_*", "oak");
+        trie.add("oak_log", "exact");
+        assertEquals("exact", trie.match("oak_log"));
+        assertEquals("oak", trie.match("oak_plank"));
+        assertEquals("log", trie.match("birch_log"));
+        assertEquals("any", trie.match("stone"));
+    }
+
+    @Test
+    void firstAddedWinsATie() {
+        GlobTrie<String> trie = new GlobTrie<>();
+        trie.add("a*", "first");
+        trie.add("*a", "second");
+        assertEquals("first", trie.match("aba"));
+    }
+}
@@ -0,0 +1,81 @@
+package fr.snoof.jobs.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongLongHashMapTest {
+
+    @Test
+    void putGetRemove() {
+        LongLongHashMap map = new LongLongHashMap();
+        assertEquals(LongLongHashMap.NO_VALUE, map.put(42, 1));
+        assertEquals(1, map.put(42, 2));
+        assertEquals(2, map.get(42));
+        assertEquals(1, map.size());
+        assertEquals(2, map.remove(42));
+        assertEquals(LongLongHashMap.NO_VALUE, map.remove(42));
+        assertFalse(map.containsKey(42));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void zeroIsAKey() {
+        LongLongHashMap map = new LongLongHashMap();
+        map.put(0, 7);
+        map.put(1, 8);
+        assertEquals(2, map.size());
+        assertEquals(7, map.get(0));
+        assertEquals(7, map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(8, map.get(1));
+    }
+
+    @Test
+    void removalKeepsTheRestOfTheClusterReachable() {
+        // Sized so nothing rehashes: every removal has to shift the following entries back
+        LongLongHashMap map = new LongLongHashMap(1000);
+        for (long key = 1; key <= 1000; key++) {
+            map.put(key, key * 10);
+        }
+        for (long key = 1; key <= 1000; key += 2) {
+            assertEquals(key * 10, map.remove(key));
+        }
+        assertEquals(500, map.size());
+        for (long key = 1; key <= 1000; key++) {
+            assertEquals(key % 2 == 0 ? key * 10 : LongLongHashMap.NO_VALUE, map.get(key));
+        }
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(1);
+        LongLongHashMap map = new LongLongHashMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // A small key range keeps clusters long and removals frequent
+            long key = random.nextInt(512) - 256;
+            if (random.nextInt(3) == 0) {
+                Long previous = expected.remove(key);
+                assertEquals(previous != null ? previous : LongLongHashMap.NO_VALUE, map.remove(key));
+            } else {
+                long value = random.nextInt(1_000_000);
+                Long previous = expected.put(key, value);
+                assertEquals(previous != null ? previous : LongLongHashMap.NO_VALUE, map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Map<Long, Long> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,61 @@
+package fr.snoof.jobs.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VarIntsTest {
+    private static final long[] LONGS = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, 1L << 35,
+            Long.MAX_VALUE, -1, Long.MIN_VALUE};
+
+    @Test
+    void intRoundTrip() {
+        int[] values = {0, 1, 127, 128, 300, 16_384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * VarInts.MAX_INT_BYTES);
+        for (int value : values) {
+            VarInts.putVarInt(buffer, value);
+        }
+        buffer.flip();
+        for (int value : values) {
+            assertEquals(value, VarInts.getVarInt(buffer));
+        }
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    void longRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(LONGS.length * VarInts.MAX_LONG_BYTES * 2);
+        for (long value : LONGS) {
+            VarInts.putVarLong(buffer, value);
+            VarInts.putSignedVarLong(buffer, value);
+        }
+        buffer.flip();
+        for (long value : LONGS) {
+            assertEquals(value, VarInts.getVarLong(buffer));
+            assertEquals(value, VarInts.getSignedVarLong(buffer));
+        }
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    void sizes() {
+        assertEquals(1, size(127, false));
+        assertEquals(2, size(128, false));
+        assertEquals(VarInts.MAX_LONG_BYTES, size(-1, false));
+        // ZigZag keeps small negative values short
+        assertEquals(1, size(-1, true));
+        assertEquals(1, size(-64, true));
+        assertEquals(2, size(64, true));
+    }
+
+    private static int size(long value, boolean signed) {
+        ByteBuffer buffer = ByteBuffer.allocate(VarInts.MAX_LONG_BYTES);
+        if (signed)
+            VarInts.putSignedVarLong(buffer, value);
+        else
+            VarInts.putVarLong(buffer, value);
+        return buffer.position();
+    }
+}